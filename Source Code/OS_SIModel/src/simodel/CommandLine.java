@@ -0,0 +1,779 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import uk.ac.leeds.mass.fmf.fit_statistics.SparseGOF;
+import uk.ac.leeds.mass.fmf.generic_algorithms.AnnealingTuner;
+import uk.ac.leeds.mass.fmf.generic_algorithms.CMAESProcess;
+import uk.ac.leeds.mass.fmf.generic_algorithms.CoolingScheduleFactory;
+import uk.ac.leeds.mass.fmf.generic_algorithms.DifferentialEvolutionProcess;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimisationBudget;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimisationProcess;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimiserFactory;
+
+
+/**
+ * Runs the model calibration without the window so it can be scripted.
+ * Arguments are given as name value pairs, for example
+ * 
+ * -origins Origins.csv -destinations Destinations.csv -distances Distances.csv -distance 25000
+ * 
+ * The optional arguments -steps -attempts -successes and -factor take the same 
+ * values as the sliders on the window.  -cooling can be geometric, lundy-mees, 
+ * adaptive or reheating.  -termination can be none, improvement or plateau.
+ * -seed sets the random seed and -speculative the number of candidate changes 
+ * evaluated at the same time.  -proposals can be adaptive or original.
+ * -minutes and -evaluations limit the calibration, when either runs out the 
+ * best fit found so far is saved.  -checkpoint names a file the state of the 
+ * calibration is saved to every -checkpointsteps steps and -resume names a 
+ * checkpoint to carry on from, the other arguments must match the original run.
+ * -tune pilot replaces -steps -attempts -successes and -factor with settings 
+ * chosen from a pilot run of -pilot evaluations to fit -minutes, -evaluations or
+ * the evaluations the slider settings would allow.
+ * -optimiser can be sa, nelder-mead, cma-es, de or poisson.  nelder-mead, cma-es and de make up to
+ * -evaluations evaluations (by default as many as the slider settings allow), 
+ * evaluating -threads points at the same time, -population sets the population
+ * size of cma-es and de.  poisson estimates the parameters by Poisson maximum 
+ * likelihood against the -observed flows in up to -iterations (50 by default)
+ * scoring steps and saves them with their standard errors to "Poisson 
+ * Estimates.csv" in the outputs folder.
+ * -betas can be single, origin for a beta for each origin or groups for a beta
+ * for each group of origins in the -groups file of origin and group pairs.
+ * -deterrence can be exponential, power, tanner or tabulated with the bands read
+ * from the -table file of upper distance and value pairs, the first band keeps
+ * its value and the others are calibrated relative to it.  Functions other than
+ * the exponential always use the adaptive proposals.  The radiation and 
+ * opportunities (intervening opportunities) models use the destination weight 
+ * closer to each origin and are usually run with -model production.  The radiation
+ * model has no parameters so it is run once without calibrating.  They need the
+ * origin of each row so they cannot be used with -skims or -sites.
+ * -model can be doubly, production, attraction, unconstrained or capacity.  The
+ * capacity model is production constrained with the flow into the destinations in
+ * the -capacities file of destination and capacity pairs held at or below capacity.
+ * -fixed is a file of origin, destination and flow rows for known flows that every
+ * model keeps as they are, the other trips are balanced to what is left of the totals.
+ * -observed is a file of origin, destination and flow rows for observed flows that
+ * the model is calibrated to instead of -distance, pairs that are not in the file
+ * have no flow.  -statistic is the comparison, srmse, aed, r2, entropy, chi2, tae,
+ * sae, pe, te, cpe, zsq or z, the fitness is 1 / (1 + |statistic|) for the ones
+ * that are minimised.  -trips can be given instead of -observed, it is a file of 
+ * individual trip records of origin, destination and an optional weight that are
+ * added up into the observed flows using -threads threads, records for zones that
+ * are not loaded are skipped.
+ * -sweep evaluates the model over a grid before calibrating, the value is a 
+ * comma separated range for each parameter as first:last:points, an empty range 
+ * keeps the parameter at its starting value.  The landscape is saved to 
+ * "Parameter Sweep.csv" in the outputs folder, with -sweepseed yes the calibration
+ * then starts from the best grid point, otherwise it is not run.
+ * -scenario names a file of origin or destination, zone and change rows that is
+ * applied to the best fit once the calibration finishes, the flows are saved to
+ * "Scenario Matrix.csv" in the outputs folder.
+ * -sites names a file of candidate destinations and weights and -sitedistances a
+ * file of origin, site and distance rows.  The candidates are ranked by the flow
+ * the best fit predicts each would attract, using -threads threads, and saved to
+ * "Site Ranking.csv" in the outputs folder.
+ * -dynamics runs up to that many steps of Harris and Wilson's attractiveness 
+ * dynamics from the best fit with -rate, -cost, -alpha and -tolerance, the 
+ * trajectory is saved to "Dynamics Trajectory.csv" in the outputs folder.
+ * -classes names a file of class, origins file, destinations file and observed
+ * distance rows.  Each class is calibrated at the same time over the loaded zones
+ * and distances with -optimiser (nelder-mead if it is sa, poisson cannot be used)
+ * within -evaluations evaluations and -minutes each, and the results saved to 
+ * "Class Results.csv" and a matrix for each class in the outputs folder.  -fixed, 
+ * -observed and -trips are for all the trips so cannot be used with -classes.
+ * -skims names comma separated name=file skims in the same form as the distances 
+ * and -modes a file of mode, skim and weight rows.  The deterrence is then the sum
+ * over the modes of the deterrence of each mode's weighted sum of its skims, the 
+ * distances are still the ones calibrated to.  The mode split of the best fit is
+ * saved to "Mode Split.csv" and "Mode Flows.csv" in the outputs folder.  The 
+ * candidate sites only have distances so -skims cannot be used with -sites.
+ * -competing names a file of destination, destination and distance rows and adds
+ * Fotheringham's competing destinations term with a calibrated delta.  The other
+ * destinations' weights are divided by distance to the power -cddecay (1 by default)
+ * and those further than -cdcutoff are left out.  It cannot be used with -sites 
+ * and always uses the adaptive proposals as delta can be positive.
+ * -furness names a seed file of origin, destination and value rows that is fitted
+ * to the origin and destination totals instead of calibrating a model, so the 
+ * distances are not needed.  -tld names a file of upper distance and flow pairs 
+ * for an observed trip length distribution the fit also matches with a factor 
+ * for each distance band, without -furness the seed is 1 for every connected 
+ * pair.  The fit uses -threads threads and stops after -iterations iterations 
+ * (1000 by default) or when the totals are within -furnesstolerance (1e-8 by 
+ * default) of the total, logging the error every -report iterations.  The fitted
+ * flows are saved to "Furness Matrix.csv" and the trip length distribution to
+ * "Trip Length Fit.csv" in the outputs folder.
+ */
+public class CommandLine {
+    
+    private static final String[] COOLING = {"geometric", "lundy-mees", "adaptive", "reheating"};
+    private static final String[] TERMINATION = {"none", "improvement", "plateau"};
+    private static final String[] PROPOSALS = {"adaptive", "original"};
+    private static final String[] TUNE = {"off", "pilot"};
+    private static final String[] BETAS = {"single", "origin", "groups"};
+    private static final String[] DETERRENCE = {"exponential", "power", "tanner", "tabulated", "radiation", "opportunities"};
+    //in the order of the DoubleModel constants
+    private static final String[] MODELS = {"doubly", "production", "attraction", "unconstrained", "capacity"};
+    //the derivative free optimisers follow simulated annealing in the OptimiserFactory order
+    private static final String[] OPTIMISERS = {"sa", "nelder-mead", "cma-es", "de", "poisson"};
+    private static final int POISSON = 4;
+    //in the order of the GOFFactory constants
+    private static final String[] STATISTICS = {"srmse", "aed", "r2", "entropy", "chi2", "tae", "sae", "pe", "te", "cpe", "zsq", "z"};
+    
+    private HashMap<String, String> arguments = new HashMap<String, String>();
+    
+    public CommandLine(String[] args){
+        //read the arguments into name value pairs
+        for (int i = 0; i < args.length - 1; i += 2) {
+            String name = args[i].startsWith("-") ? args[i].substring(1) : args[i];
+            arguments.put(name.toLowerCase(), args[i + 1]);
+        }
+    }
+    
+    /**
+     * Load the data and run the calibration
+     * 
+     * @return true if the calibration ran and the outputs were saved
+     */
+    public boolean run(){
+        
+        DataHandler data = DataHandler.getDataHandler();
+        
+        if ( !data.loadOrigins(getString("origins", "")) ){
+            SpatialInteractionModel.log("Unable to load origins " + data.getOriginFile());
+            return false;
+        }
+        if ( !data.loadDestinations(getString("destinations", "")) ){
+            SpatialInteractionModel.log("Unable to load destinations " + data.getDestinationFile());
+            return false;
+        }
+        if ( arguments.containsKey("furness") && !arguments.containsKey("tld") ){
+            return furness();
+        }
+        if ( !data.loadDistances(getString("distances", "")) ){
+            SpatialInteractionModel.log("Unable to load distances " + data.getDistanceFile());
+            return false;
+        }
+        if ( arguments.containsKey("tld") ){
+            return furness();
+        }
+        
+        switch ( getOption("betas", BETAS) ){
+            case 1:
+                data.setOriginSpecificBetas();
+                break;
+            case 2:
+                if ( !data.loadOriginGroups(getString("groups", "")) ){return false;}
+                break;
+            default:
+                data.clearBetaGroups();
+        }
+        
+        data.setModelConstraint(getOption("model", MODELS));
+        if ( arguments.containsKey("capacities") && !data.loadCapacities(getString("capacities", "")) ){
+            SpatialInteractionModel.log("Unable to load capacities " + getString("capacities", ""));
+            return false;
+        }
+        if ( arguments.containsKey("fixed") && !data.loadFixedCells(getString("fixed", "")) ){
+            SpatialInteractionModel.log("Unable to load fixed cells " + getString("fixed", ""));
+            return false;
+        }
+        data.setObservedFlows(null);
+        if ( arguments.containsKey("observed") ){
+            if ( !data.loadObservedFlows(getString("observed", "")) ){
+                SpatialInteractionModel.log("Unable to load observed flows " + getString("observed", ""));
+                return false;
+            }
+            data.setFitStatistic(getOption("statistic", STATISTICS));
+        }else if ( arguments.containsKey("trips") ){
+            TripAggregator trips = new TripAggregator();
+            trips.setThreads(getInt("threads", Runtime.getRuntime().availableProcessors()));
+            SparseMatrix flows = trips.aggregate(getString("trips", ""));
+            if ( flows == null ){return false;}
+            SpatialInteractionModel.log("Aggregated " + trips.getRecords() + " trips into " + flows.getCount() 
+                    + " origin destination pairs, skipped " + trips.getSkipped() + " lines");
+            data.setObservedFlows(flows);
+            data.setFitStatistic(getOption("statistic", STATISTICS));
+        }
+        
+        switch ( getOption("deterrence", DETERRENCE) ){
+            case 1:
+                data.setDeterrenceFunction(new PowerDeterrence());
+                break;
+            case 2:
+                data.setDeterrenceFunction(new TannerDeterrence());
+                break;
+            case 3:
+                IDeterrenceFunction table = data.loadDeterrenceTable(getString("table", ""));
+                if ( table == null ){return false;}
+                data.setDeterrenceFunction(table);
+                break;
+            case 4:
+                data.setDeterrenceFunction(new RadiationDeterrence());
+                break;
+            case 5:
+                data.setDeterrenceFunction(new InterveningOpportunitiesDeterrence());
+                break;
+            default:
+                data.setDeterrenceFunction(new ExponentialDeterrence());
+        }
+        
+        data.setCompetingDestinations(null);
+        if ( arguments.containsKey("competing") ){
+            double[][] destinationDistances = data.loadDestinationDistances(getString("competing", ""));
+            if ( destinationDistances == null ){return false;}
+            CompetingDestinations competing = new CompetingDestinations(destinationDistances);
+            competing.setDecay(getDouble("cddecay", 1.0));
+            competing.setCutoff(getDouble("cdcutoff", Double.POSITIVE_INFINITY));
+            competing.setThreads(getInt("threads", Runtime.getRuntime().availableProcessors()));
+            data.setCompetingDestinations(competing);
+        }
+        
+        data.setGeneralisedCost(null);
+        if ( arguments.containsKey("skims") ){
+            GeneralisedCost cost = new GeneralisedCost();
+            for (String skim : getString("skims", "").split(",")) {
+                int split = skim.indexOf('=');
+                double[][] costs = split > 0 ? data.loadSkim(skim.substring(split + 1)) : null;
+                if ( costs == null ){
+                    SpatialInteractionModel.log("Unable to load the skim " + skim + ", use name=file");
+                    return false;
+                }
+                cost.addSkim(skim.substring(0, split), costs);
+            }
+            if ( !cost.loadModes(getString("modes", "")) ){
+                SpatialInteractionModel.log("Unable to load the modes " + getString("modes", ""));
+                return false;
+            }
+            data.setGeneralisedCost(cost);
+        }
+        
+        if ( !checkDeterrence() ){return false;}
+        
+        Random r = arguments.containsKey("seed") ? new Random(getLong("seed", 0)) : new Random();
+        
+        double[] beta = data.getInitialParameters();
+        
+        if ( arguments.containsKey("classes") ){
+            return calibrateClasses(r);
+        }
+        
+        if ( beta.length == 0 ){
+            return runWithoutParameters(r);
+        }
+        
+        DoubleModel dm = new DoubleModel(r);
+        int proposals = getOption("proposals", PROPOSALS);
+        dm.setAdaptiveProposals(proposals == 0);
+        if ( proposals != 0 && dm.isAdaptiveProposals() ){
+            SpatialInteractionModel.log("The " + PROPOSALS[1] + " proposals are only used with the exponential deterrence and no competing destinations, using " + PROPOSALS[0]);
+        }
+        dm.runModel(beta);
+        
+        SpatialInteractionModel.log("Distance " + Double.toString(dm.getDistance()));
+        SpatialInteractionModel.log("Entropy " + Double.toString(dm.getEntropy()));
+        
+        if ( arguments.containsKey("sweep") ){
+            double[] best = sweep(beta);
+            if ( best == null ){return false;}
+            if ( !getString("sweepseed", "no").equalsIgnoreCase("yes") ){
+                SpatialInteractionModel.log("Done.");
+                return true;
+            }
+            SpatialInteractionModel.log("Starting the calibration from the best grid point " + Arrays.toString(best));
+            dm.runModel(best);
+        }
+        
+        int steps = getInt("steps", 100);
+        int attempts = getInt("attempts", 100);
+        int successes = getInt("successes", 10);
+        int factor = getInt("factor", 90);
+        
+        int optimiser = getOption("optimiser", OPTIMISERS);
+        if ( optimiser == POISSON ){
+            return poisson(dm, r);
+        }
+        if ( optimiser > 0 ){
+            return optimise(dm, optimiser - 1, (long)steps * attempts * dm.getSampleSize(), r);
+        }
+        
+        //the budget is started before the pilot so the pilot's time comes out of the limit
+        OptimisationBudget budget = null;
+        if ( arguments.containsKey("minutes") || arguments.containsKey("evaluations") ){
+            long time = arguments.containsKey("minutes") ? (long)(getDouble("minutes", 0.0) * 60000) : OptimisationBudget.UNLIMITED;
+            budget = new OptimisationBudget(time, getLong("evaluations", OptimisationBudget.UNLIMITED));
+            budget.start();
+        }
+        
+        AnnealingTuner tuner = null;
+        if ( getOption("tune", TUNE) == 1 ){
+            //the distance is needed by the fitness used in the pilot
+            data.setObservedDistance(getDouble("distance", 0.0));
+            
+            tuner = new AnnealingTuner();
+            tuner.setPilotEvaluations(getInt("pilot", 20));
+            long time = arguments.containsKey("minutes") ? (long)(getDouble("minutes", 0.0) * 60000) : OptimisationBudget.UNLIMITED;
+            long evaluations = getLong("evaluations", OptimisationBudget.UNLIMITED);
+            if ( time == OptimisationBudget.UNLIMITED && evaluations == OptimisationBudget.UNLIMITED ){
+                evaluations = (long)steps * attempts * dm.getSampleSize();
+            }
+            tuner.tune(dm, time, evaluations);
+            SpatialInteractionModel.log(tuner.getMessage());
+            
+            steps = tuner.getSteps();
+            attempts = tuner.getAttempts();
+            successes = tuner.getSuccesses();
+            factor = tuner.getFactor();
+        }
+        
+        DoubleModelCalibrate calib = new DoubleModelCalibrate(getDouble("distance", 0.0), 
+                steps, 
+                attempts, 
+                successes, 
+                factor, 
+                r);
+        if ( tuner != null ){calib.setInitialTemperature(tuner.getInitialTemperature());}
+        
+        CoolingScheduleFactory factory = new CoolingScheduleFactory();
+        calib.setCoolingSchedule(factory.createSchedule(getOption("cooling", COOLING), (double)factor/100));
+        calib.setTerminationCriterion(factory.createTermination(getOption("termination", TERMINATION)));
+        calib.setSpeculativeCandidates(getInt("speculative", 1));
+        
+        calib.setSa(dm);
+        
+        if ( arguments.containsKey("checkpoint") ){
+            calib.setCheckpoint(new File(getString("checkpoint", "")), getInt("checkpointsteps", 1));
+        }
+        
+        if ( arguments.containsKey("resume") ){
+            try {
+                calib.resume(new File(getString("resume", "")));
+                SpatialInteractionModel.log("Resuming calibration from " + getString("resume", ""));
+            } catch (IOException ex) {
+                SpatialInteractionModel.log(ex.getMessage());
+                return false;
+            }
+        }
+        
+        if ( budget != null ){calib.setBudget(budget);}
+        
+        calib.optimise();
+        
+        SpatialInteractionModel.log("Calibration finished. Saving outputs");
+        
+        data.saveOutputs();
+        
+        logStatistic();
+        if ( !saveModeSplit() ){return false;}
+        
+        if ( arguments.containsKey("scenario") && !scenario(r) ){return false;}
+        if ( arguments.containsKey("sites") && !screenSites(r) ){return false;}
+        if ( arguments.containsKey("dynamics") && !dynamics(r) ){return false;}
+        
+        SpatialInteractionModel.log("Done.");
+        
+        return true;
+    }
+    
+    //the opportunity deterrence needs the origin of each row so it cannot be applied
+    //to the costs of a generalised cost, and the candidate sites only have distances
+    //so they cannot be screened with it or with the competing destinations term
+    private boolean checkDeterrence(){
+        DataHandler data = DataHandler.getDataHandler();
+        if ( data.getCompetingDestinations() != null && arguments.containsKey("sites") ){
+            SpatialInteractionModel.log("The competing destinations term cannot be used with -sites");
+            return false;
+        }
+        if ( data.getGeneralisedCost() != null && arguments.containsKey("sites") ){
+            SpatialInteractionModel.log("-skims cannot be used with -sites");
+            return false;
+        }
+        if ( !(data.getDeterrenceFunction() instanceof IOpportunityDeterrence) ){return true;}
+        String name = DETERRENCE[getOption("deterrence", DETERRENCE)];
+        if ( data.getGeneralisedCost() != null ){
+            SpatialInteractionModel.log("The " + name + " deterrence cannot be used with -skims");
+            return false;
+        }
+        if ( arguments.containsKey("sites") ){
+            SpatialInteractionModel.log("The " + name + " deterrence cannot be used with -sites");
+            return false;
+        }
+        return true;
+    }
+    
+    //log the statistic of the best fit against the observed flows if there are any
+    private void logStatistic(){
+        DataHandler data = DataHandler.getDataHandler();
+        SparseMatrix flows = data.getObservedFlows();
+        if ( flows == null ){return;}
+        SparseGOF statistic = data.getFitStatistic();
+        SpatialInteractionModel.log(statistic.getTest().fieldName() + " " 
+                + Double.toString(statistic.test(flows.getColumns(), flows.getValues(), data.getBestFit())));
+    }
+    
+    //save the mode split of the best fit if there are several modes
+    private boolean saveModeSplit(){
+        DataHandler data = DataHandler.getDataHandler();
+        GeneralisedCost cost = data.getGeneralisedCost();
+        return cost == null || cost.save(data.getBestFit(), data.getBestFitParameters());
+    }
+    
+    //fit the seed file to the loaded origin and destination totals, and the trip
+    //length distribution if there is one, and save it
+    private boolean furness(){
+        DataHandler data = DataHandler.getDataHandler();
+        double[][] distances = null;
+        if ( arguments.containsKey("tld") ){
+            distances = new double[data.getOrigin().length][];
+            for (int i = 0; i < distances.length; i++) {distances[i] = data.getDistanceRow(i);}
+        }
+        
+        Furness furness;
+        if ( arguments.containsKey("furness") ){
+            SparseMatrix seed = SparseMatrix.load(getString("furness", ""));
+            if ( seed == null ){
+                SpatialInteractionModel.log("Unable to load the seed " + getString("furness", ""));
+                return false;
+            }
+            furness = new Furness(seed);
+        }else{
+            //every connected pair starts the same
+            double[][] seed = new double[distances.length][];
+            for (int i = 0; i < seed.length; i++) {
+                seed[i] = new double[distances[i].length];
+                for (int j = 0; j < seed[i].length; j++) {seed[i][j] = distances[i][j] == -1.0 ? 0.0 : 1.0;}
+            }
+            furness = new Furness(seed);
+        }
+        
+        double[][] tripLengths = null;
+        if ( distances != null ){
+            tripLengths = data.loadTripLengths(getString("tld", ""));
+            if ( tripLengths == null ){return false;}
+            furness.setBands(distances, tripLengths[0], tripLengths[1]);
+        }
+        furness.setThreads(getInt("threads", Runtime.getRuntime().availableProcessors()));
+        furness.setMaximumIterations(getInt("iterations", 1000));
+        furness.setTolerance(getDouble("furnesstolerance", 1.0E-8));
+        furness.setReport(getInt("report", 0));
+        
+        boolean converged = furness.fit(data.getOrigin(), data.getDestination());
+        SpatialInteractionModel.log((converged ? "Converged" : "Did not converge") + " after " 
+                + furness.getIterations() + " iterations, error " + Double.toString(furness.getError()));
+        
+        File file = data.getOutputFile("Furness Matrix.csv");
+        if ( !furness.save(file) ){return false;}
+        SpatialInteractionModel.log("Saved the fitted matrix to " + file.getAbsolutePath());
+        
+        if ( tripLengths != null ){
+            double[] fitted = furness.getBandTotals();
+            double[] factors = furness.getBandFactors();
+            String[][] table = new String[fitted.length + 1][];
+            table[0] = new String[]{"Upper Distance", "Observed", "Fitted", "Factor"};
+            for (int k = 0; k < fitted.length; k++) {
+                table[k + 1] = new String[]{
+                    Double.toString(tripLengths[0][k]), 
+                    Double.toString(tripLengths[1][k]), 
+                    Double.toString(fitted[k]), 
+                    Double.toString(factors[k])};
+            }
+            file = data.getOutputFile("Trip Length Fit.csv");
+            if ( !data.saveData(file, table) ){return false;}
+            SpatialInteractionModel.log("Saved the trip length distribution to " + file.getAbsolutePath());
+        }
+        return true;
+    }
+    
+    //re-solve the best fit with the changes in the scenario file and save the flows
+    private boolean scenario(Random r){
+        DataHandler data = DataHandler.getDataHandler();
+        DoubleModel best = new DoubleModel(r);
+        if ( !best.runModel(data.getBestFitParameters()) ){
+            SpatialInteractionModel.log("The best fit could not be balanced for the scenario");
+            return false;
+        }
+        
+        Scenario scenario = new Scenario(best);
+        if ( !scenario.apply(getString("scenario", "")) ){
+            SpatialInteractionModel.log("Unable to apply the scenario " + getString("scenario", ""));
+            return false;
+        }
+        SpatialInteractionModel.log("Scenario distance " + Double.toString(scenario.getDistance()));
+        SpatialInteractionModel.log("Scenario entropy " + Double.toString(scenario.getEntropy()));
+        
+        File file = data.getOutputFile("Scenario Matrix.csv");
+        if ( !scenario.save(file) ){return false;}
+        SpatialInteractionModel.log("Saved the scenario to " + file.getAbsolutePath());
+        return true;
+    }
+    
+    //run a model that has nothing to calibrate and save it as both the best fit and final run
+    private boolean runWithoutParameters(Random r){
+        DataHandler data = DataHandler.getDataHandler();
+        data.setObservedDistance(getDouble("distance", 0.0));
+        
+        DoubleModel dm = new DoubleModel(r);
+        if ( !dm.runModel(new double[0]) ){
+            SpatialInteractionModel.log("The model could not be balanced");
+            return false;
+        }
+        SpatialInteractionModel.log("Distance " + Double.toString(dm.getDistance()));
+        SpatialInteractionModel.log("Entropy " + Double.toString(dm.getEntropy()));
+        
+        data.setResults(dm.getResults());
+        //the only run is the best fit whatever its fitness
+        double fitness = Math.max(dm.getCurrentFittness(), Double.MIN_VALUE);
+        data.storeBestFitResult(dm.getResults(), dm.getEntropy(), dm.getDistance(), fitness, dm.getBeta());
+        data.storeFinalRunResult(dm.getResults(), dm.getEntropy(), dm.getDistance(), dm.getBeta());
+        data.saveOutputs();
+        
+        logStatistic();
+        if ( !saveModeSplit() ){return false;}
+        if ( arguments.containsKey("scenario") && !scenario(r) ){return false;}
+        if ( arguments.containsKey("sites") && !screenSites(r) ){return false;}
+        if ( arguments.containsKey("dynamics") && !dynamics(r) ){return false;}
+        
+        SpatialInteractionModel.log("Done.");
+        return true;
+    }
+    
+    //calibrate each class in the classes file at the same time and save the results
+    private boolean calibrateClasses(Random r){
+        //the fixed and observed flows are loaded for all the trips rather than for a class
+        for (String option : new String[]{"fixed", "observed", "trips"}) {
+            if ( arguments.containsKey(option) ){
+                SpatialInteractionModel.log("-" + option + " cannot be used with -classes");
+                return false;
+            }
+        }
+        
+        MultiClassModel classes = new MultiClassModel(r);
+        if ( !classes.load(getString("classes", "")) ){
+            SpatialInteractionModel.log("Unable to load the classes " + getString("classes", ""));
+            return false;
+        }
+        
+        //the classes are calibrated to their distances with the derivative free optimisers
+        int optimiser = getOption("optimiser", OPTIMISERS);
+        if ( optimiser == POISSON ){
+            SpatialInteractionModel.log("The classes cannot be calibrated with " + OPTIMISERS[POISSON] + ", use " + OPTIMISERS[1] + ", " + OPTIMISERS[2] + " or " + OPTIMISERS[3]);
+            return false;
+        }
+        if ( optimiser == 0 ){
+            SpatialInteractionModel.log("The classes are calibrated with " + OPTIMISERS[1] + " rather than " + OPTIMISERS[0]);
+        }
+        classes.setOptimiser(optimiser > 0 ? optimiser - 1 : OptimiserFactory.NELDER_MEAD);
+        classes.setThreads(getInt("threads", Runtime.getRuntime().availableProcessors()));
+        long evaluations = (long)getInt("steps", 100) * getInt("attempts", 100) * DataHandler.getDataHandler().getParameterCount();
+        classes.setMaximumEvaluations((int)Math.min(Integer.MAX_VALUE, getLong("evaluations", evaluations)));
+        if ( arguments.containsKey("minutes") ){
+            classes.setTimeLimit((long)(getDouble("minutes", 0.0) * 60000));
+        }
+        
+        if ( !classes.calibrate() ){
+            SpatialInteractionModel.log("A class could not be balanced");
+        }
+        
+        SpatialInteractionModel.log("Calibrated " + classes.getClassCount() + " classes. Saving outputs");
+        if ( !classes.save() ){return false;}
+        
+        SpatialInteractionModel.log("Done.");
+        return true;
+    }
+    
+    //rank the candidate sites against the best fit and save the ranking
+    private boolean screenSites(Random r){
+        DataHandler data = DataHandler.getDataHandler();
+        DoubleModel best = new DoubleModel(r);
+        if ( !best.runModel(data.getBestFitParameters()) ){return false;}
+        
+        SiteScreening screening = new SiteScreening(best);
+        if ( !screening.load(getString("sites", ""), getString("sitedistances", "")) ){
+            SpatialInteractionModel.log("Unable to load the candidate sites " + getString("sites", ""));
+            return false;
+        }
+        screening.setThreads(getInt("threads", Runtime.getRuntime().availableProcessors()));
+        screening.run();
+        
+        File file = data.getOutputFile("Site Ranking.csv");
+        if ( !screening.save(file) ){return false;}
+        SpatialInteractionModel.log("Saved the site ranking to " + file.getAbsolutePath());
+        return true;
+    }
+    
+    //run the attractiveness dynamics from the best fit and save the trajectory
+    private boolean dynamics(Random r){
+        DataHandler data = DataHandler.getDataHandler();
+        DoubleModel best = new DoubleModel(r);
+        if ( !best.runModel(data.getBestFitParameters()) ){return false;}
+        
+        HarrisWilsonDynamics hw = new HarrisWilsonDynamics(best);
+        hw.setMaximumSteps(getInt("dynamics", 1000));
+        hw.setRate(getDouble("rate", 0.01));
+        hw.setCost(getDouble("cost", 0.0));
+        hw.setAlpha(getDouble("alpha", 1.0));
+        hw.setTolerance(getDouble("tolerance", 1e-6));
+        hw.run();
+        
+        File file = data.getOutputFile("Dynamics Trajectory.csv");
+        if ( !hw.save(file) ){return false;}
+        SpatialInteractionModel.log("Saved the dynamics trajectory to " + file.getAbsolutePath());
+        return true;
+    }
+    
+    //evaluate the model over the grid given by the sweep argument and save the landscape
+    private double[] sweep(double[] start){
+        DataHandler data = DataHandler.getDataHandler();
+        data.setObservedDistance(getDouble("distance", 0.0));
+        
+        ParameterSweep sweep = new ParameterSweep(start);
+        sweep.setThreads(getInt("threads", Runtime.getRuntime().availableProcessors()));
+        
+        String[] ranges = getString("sweep", "").split(",");
+        for (int p = 0; p < ranges.length && p < start.length; p++) {
+            if ( ranges[p].trim().isEmpty() ){continue;}
+            String[] range = ranges[p].split(":");
+            try{
+                sweep.setRange(p, Double.parseDouble(range[0]), Double.parseDouble(range[1]), Integer.parseInt(range[2].trim()));
+            }catch(RuntimeException e){
+                SpatialInteractionModel.log("Unable to read the sweep range " + ranges[p] + ", use first:last:points");
+                return null;
+            }
+        }
+        
+        sweep.run();
+        
+        File file = data.getOutputFile("Parameter Sweep.csv");
+        if ( !sweep.save(file) ){return null;}
+        SpatialInteractionModel.log("Saved the parameter sweep to " + file.getAbsolutePath());
+        
+        return sweep.getBest();
+    }
+    
+    //estimate the parameters by Poisson maximum likelihood against the observed flows
+    private boolean poisson(DoubleModel dm, Random r){
+        DataHandler data = DataHandler.getDataHandler();
+        data.setObservedDistance(getDouble("distance", 0.0));
+        
+        PoissonCalibrate calib = new PoissonCalibrate(dm);
+        calib.setMaximumIterations(getInt("iterations", 50));
+        if ( !calib.calibrate(dm.getBeta()) ){
+            if ( calib.getParameters() == null ){return false;}
+            SpatialInteractionModel.log("The Poisson estimates did not converge");
+        }
+        SpatialInteractionModel.log("Poisson estimates " + Arrays.toString(calib.getParameters()) 
+                + " standard errors " + Arrays.toString(calib.getStandardErrors()) 
+                + " after " + calib.getIterations() + " iterations");
+        
+        data.setResults(dm.getResults());
+        //the estimates are the best fit whatever their fitness
+        double fitness = Math.max(dm.getCurrentFittness(), Double.MIN_VALUE);
+        data.storeBestFitResult(dm.getResults(), dm.getEntropy(), dm.getDistance(), fitness, dm.getBeta());
+        data.storeFinalRunResult(dm.getResults(), dm.getEntropy(), dm.getDistance(), dm.getBeta());
+        data.saveOutputs();
+        
+        File file = data.getOutputFile("Poisson Estimates.csv");
+        if ( !calib.save(file) ){return false;}
+        SpatialInteractionModel.log("Saved the estimates to " + file.getAbsolutePath());
+        
+        logStatistic();
+        if ( !saveModeSplit() ){return false;}
+        if ( arguments.containsKey("scenario") && !scenario(r) ){return false;}
+        if ( arguments.containsKey("sites") && !screenSites(r) ){return false;}
+        if ( arguments.containsKey("dynamics") && !dynamics(r) ){return false;}
+        
+        SpatialInteractionModel.log("Done.");
+        return true;
+    }
+    
+    //calibrate with one of the derivative free optimisers instead of simulated annealing
+    private boolean optimise(DoubleModel dm, int optimiserType, long evaluations, Random r){
+        DataHandler.getDataHandler().setObservedDistance(getDouble("distance", 0.0));
+        
+        OptimisationProcess process = new OptimiserFactory().createOptimiser(optimiserType);
+        process.setObjective(dm);
+        process.setRandomSeed(r.nextLong());
+        process.setThreads(getInt("threads", Runtime.getRuntime().availableProcessors()));
+        process.setMaximumEvaluations((int)Math.min(Integer.MAX_VALUE, getLong("evaluations", evaluations)));
+        if ( process instanceof CMAESProcess ){
+            ((CMAESProcess)process).setPopulationSize(getInt("population", 0));
+        }else if ( process instanceof DifferentialEvolutionProcess ){
+            ((DifferentialEvolutionProcess)process).setPopulationSize(getInt("population", 0));
+        }
+        
+        OptimisationBudget budget = null;
+        if ( arguments.containsKey("minutes") ){
+            budget = new OptimisationBudget((long)(getDouble("minutes", 0.0) * 60000), OptimisationBudget.UNLIMITED);
+            dm.setBudget(budget);
+        }
+        process.setBudget(budget);
+        
+        process.optimise();
+        
+        SpatialInteractionModel.log(OptimiserFactory.NAMES[optimiserType] + " finished after " 
+                + process.getEvaluations() + " evaluations. Saving outputs");
+        
+        DataHandler.getDataHandler().saveOutputs();
+        
+        logStatistic();
+        if ( !saveModeSplit() ){return false;}
+        
+        if ( arguments.containsKey("scenario") && !scenario(r) ){return false;}
+        if ( arguments.containsKey("sites") && !screenSites(r) ){return false;}
+        if ( arguments.containsKey("dynamics") && !dynamics(r) ){return false;}
+        
+        SpatialInteractionModel.log("Done.");
+        
+        return true;
+    }
+    
+    private String getString(String name, String defaultValue){
+        return arguments.containsKey(name) ? arguments.get(name) : defaultValue;
+    }
+    
+    private int getInt(String name, int defaultValue){
+        return arguments.containsKey(name) ? Integer.parseInt(arguments.get(name)) : defaultValue;
+    }
+    
+    private long getLong(String name, long defaultValue){
+        return arguments.containsKey(name) ? Long.parseLong(arguments.get(name)) : defaultValue;
+    }
+    
+    private double getDouble(String name, double defaultValue){
+        return arguments.containsKey(name) ? Double.parseDouble(arguments.get(name)) : defaultValue;
+    }
+    
+    //find the index of a named option, the first option is the default
+    private int getOption(String name, String[] options){
+        String value = getString(name, options[0]);
+        for (int i = 0; i < options.length; i++) {
+            if ( options[i].equalsIgnoreCase(value) ){return i;}
+        }
+        SpatialInteractionModel.log("Unknown " + name + " " + value + ", using " + options[0]);
+        return 0;
+    }
+    
+}
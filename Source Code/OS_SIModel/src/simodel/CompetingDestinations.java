@@ -0,0 +1,188 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fotheringham's competing destinations term.  The accessibility of a destination
+ * to the other destinations
+ * 
+ * A(j) = sum over k not j of W(k) d(j,k)^-decay
+ * 
+ * raised to the power delta multiplies the deterrence of every flow into the 
+ * destination, so a negative delta means destinations near other destinations 
+ * compete for the flows.  The accessibility only depends on the destination weights
+ * and distances so it is calculated once, in parallel, for each array of weights 
+ * the models are solved with and only delta is calibrated.  The factors for the 
+ * last delta are kept with it so the rows of every origin share them.  Destinations
+ * further apart than the cutoff are left out of the sums.
+ */
+public class CompetingDestinations {
+    
+    private final double[][] distance;
+    private double decay = 1.0;
+    private double cutoff = Double.POSITIVE_INFINITY;
+    private int threads = 1;
+    
+    //the accessibility of each array of destination weights, arrays do not override
+    //equals so the weights are matched by reference and dropped when no model uses them
+    private final Map<double[], Accessibility> accessibility = new WeakHashMap<double[], Accessibility>();
+    
+    //the accessibility for one array of weights and the factors of the last delta
+    private static class Accessibility{
+        private final double[] values;
+        private volatile Factors factors = null;
+        
+        Accessibility(double[] values){
+            this.values = values;
+        }
+    }
+    
+    //the factors for one value of delta
+    private static class Factors{
+        private final double delta;
+        private final double[] values;
+        
+        Factors(double delta, double[] values){
+            this.delta = delta;
+            this.values = values;
+        }
+    }
+    
+    /**
+     * @param distance the distances between the destinations in the order of the 
+     * loaded destinations, -1 where they are not connected
+     */
+    public CompetingDestinations(double[][] distance){
+        this.distance = distance;
+    }
+    
+    /**
+     * @param decay the power of distance the weights of the other destinations are divided by
+     */
+    public synchronized void setDecay(double decay){
+        this.decay = decay;
+        accessibility.clear();
+    }
+    
+    /**
+     * @param cutoff the distance beyond which destinations do not compete
+     */
+    public synchronized void setCutoff(double cutoff){
+        this.cutoff = cutoff;
+        accessibility.clear();
+    }
+    
+    /**
+     * @param threads the number of threads used to calculate the accessibility
+     */
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * @param weights the destination weights of the model being solved
+     * @return the accessibility of each destination, calculated the first time 
+     * these weights are used.  This must not be changed.
+     */
+    public double[] getAccessibility(double[] weights){
+        return getEntry(weights).values;
+    }
+    
+    private synchronized Accessibility getEntry(double[] weights){
+        Accessibility a = accessibility.get(weights);
+        if ( a == null ){
+            a = new Accessibility(calculate(weights));
+            accessibility.put(weights, a);
+        }
+        return a;
+    }
+    
+    /**
+     * @param delta the power the accessibility is raised to
+     * @param weights the destination weights of the model being solved
+     * @return the factor multiplying the deterrence of the flows into each 
+     * destination, this must not be changed
+     */
+    public double[] getFactors(double delta, double[] weights){
+        Accessibility a = getEntry(weights);
+        Factors f = a.factors;
+        if ( f != null && f.delta == delta ){return f.values;}
+        
+        double[] values = new double[a.values.length];
+        for (int j = 0; j < values.length; j++) {
+            //a destination with no competitors is left as it is
+            values[j] = a.values[j] > 0.0 ? Math.pow(a.values[j], delta) : 1.0;
+        }
+        a.factors = new Factors(delta, values);
+        return values;
+    }
+    
+    //sum the weights of the other destinations in chunks of destinations
+    private double[] calculate(final double[] w){
+        final double[] a = new double[w.length];
+        int chunks = Math.max(1, Math.min(threads, a.length));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int c = 0; c < chunks; c++) {
+            final int first = (int)((long)a.length * c / chunks);
+            final int last = (int)((long)a.length * (c + 1) / chunks);
+            tasks.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    for (int j = first; j < last; j++) {
+                        double[] row = distance[j];
+                        double sum = 0.0;
+                        for (int k = 0; k < row.length; k++) {
+                            //the destination itself, unconnected pairs and pairs beyond the cutoff
+                            if ( k == j || row[k] <= 0.0 || row[k] > cutoff ){continue;}
+                            sum += w[k] * Math.exp(-decay * Math.log(row[k]));
+                        }
+                        a[j] = sum;
+                    }
+                    return null;
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(chunks);
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {f.get();}
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return a;
+    }
+    
+}
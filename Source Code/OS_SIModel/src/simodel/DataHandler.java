@@ -25,8 +25,14 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import uk.ac.leeds.filereader.CSVReader;
 import uk.ac.leeds.filereader.CSVWriter;
+import uk.ac.leeds.mass.fmf.fit_statistics.GOFFactory;
+import uk.ac.leeds.mass.fmf.fit_statistics.SparseGOF;
 
 
 public class DataHandler {
@@ -50,20 +56,60 @@ public class DataHandler {
     //array holding the weights for the destinations
     private double[] destination = null;
     private String[] destinationID = null;
+    //the index of each identifier, built when the zones are loaded and only read 
+    //afterwards so it can be used from several threads
+    private HashMap<String, Integer> originIndex = new HashMap<String, Integer>();
+    private HashMap<String, Integer> destinationIndex = new HashMap<String, Integer>();
     
     //array holding the distances between the origin and 
     //destinations
     private double[][] distance = null;
     
+    //the beta used by each origin and the names of the betas, 
+    //null if all of the origins share one beta
+    private int[] betaGroup = null;
+    private String[] betaGroupID = null;
+    
+    //the function of distance used by the models, each origin group has its own parameters
+    private IDeterrence deterrenceFunction = new ExponentialDeterrence();
+    
+    //the modes and skims the deterrence is calculated from instead of the distances, 
+    //null to use the distances
+    private GeneralisedCost generalisedCost = null;
+    
+    //the competing destinations term, null for the plain models
+    private CompetingDestinations competingDestinations = null;
+    
+    //the most flow each destination can take for the capacity constrained model,
+    //infinite for uncapped destinations, null if there are no capacities
+    private double[] capacity = null;
+    
+    //known flows kept as they are by the models, null if there are none
+    private FixedCells fixedCells = null;
+    //how far the fixed flows can be over a zone's weight, the models balance to 1 trip
+    private static final double FIXED_TOLERANCE = 1.0;
+    
+    //observed flows the models are calibrated to with the statistic, null to use the distance
+    private SparseMatrix observedFlows = null;
+    private SparseGOF fitStatistic = new SparseGOF(GOFFactory.GOF_SRMSE);
+    
+    //the destinations of each origin in distance order, built when first needed
+    private OpportunityIndex opportunityIndex = null;
+    
+    //which of the DoubleModel constraints to apply
+    private int modelConstraint = DoubleModel.DOUBLY_CONSTRAINED;
+    
     private double[][] results = null;
     
     private double[][] bestFit = null;    
     private double bestFitDisance = 0.0;
     private double bestFitEntroy = 0.0;
     private double bestFitStat = 0.0;
+    private double[] bestFitParameters = new double[0];
     private double[][] finalRun = null;
     private double finalRunDisance = 0.0;
     private double finalRunEntroy = 0.0;
+    private double[] finalRunParameters = new double[0];
     
     private double observedDistance = 0.0;
     
@@ -141,7 +187,24 @@ public class DataHandler {
         
     }
  
+    /**
+     * Accessor method to get the distances from an origin to every destination.
+     * The array is the one held by this object so it must not be changed.
+     * 
+     * @param originIndex a valid integer value between 0 and the length 
+     * of the origin array.
+     * @return the distances from the origin, -1.0 where there is no connection
+     */
+    public double[] getDistanceRow(int originIndex) {
+        return distance[originIndex];
+    }
+ 
     private double[][] load2DimensionDoubles(String filePath){
+        return load2DimensionDoubles(filePath, originID, destinationID);
+    }
+    
+    //load a matrix of from, to and value rows for the given row and column identifiers
+    private double[][] load2DimensionDoubles(String filePath, String[] rowID, String[] columnID){
         
         File file = new File(filePath);
         
@@ -150,7 +213,7 @@ public class DataHandler {
         int currentOrigIndex = -1;
         int currentDestIndex = -1;
         
-        double[][] d = new double[origin.length][destination.length];
+        double[][] d = new double[rowID.length][columnID.length];
         
         //set all of the values to -1 so that we can detect if there is not a 
         //connection between the origin and destination
@@ -174,8 +237,8 @@ public class DataHandler {
                 if ( !s[0].equals(currentOrig) ){
                     currentOrigIndex = -1;
                     currentOrig = s[0];
-                    for (int j = 0; j < originID.length; j++) {
-                        if ( currentOrig.equals(getOriginID(j)) ){
+                    for (int j = 0; j < rowID.length; j++) {
+                        if ( currentOrig.equals(rowID[j]) ){
                             currentOrigIndex = j;
                             break;
                         }
@@ -185,8 +248,8 @@ public class DataHandler {
                 if ( !s[1].equals(currentDest) && currentOrigIndex > -1 ){
                     currentDestIndex = -1;
                     currentDest = s[1];
-                    for (int j = 0; j < destinationID.length; j++) {
-                        if ( currentDest.equals(getDestinationID(j)) ){
+                    for (int j = 0; j < columnID.length; j++) {
+                        if ( currentDest.equals(columnID[j]) ){
                             currentDestIndex = j;
                             break;
                         }
@@ -202,9 +265,9 @@ public class DataHandler {
             br.close(); 
 
         } catch (IOException ex) {
-            SpatialInteractionModel.getCurrent().report(ex.getMessage());
+            SpatialInteractionModel.log(ex.getMessage());
             for (StackTraceElement ste: ex.getStackTrace()) {
-                SpatialInteractionModel.getCurrent().report(ste.toString());
+                SpatialInteractionModel.log(ste.toString());
             }
             
             return null;
@@ -238,6 +301,12 @@ public class DataHandler {
                 originID[i - indexOffset] = data[i][0];
                 origin[i - indexOffset] = Double.parseDouble(data[i][1]);              
             }
+            originIndex = index(originID);
+            
+            //any groups, fixed cells and observed flows belonged to the previous origins
+            clearBetaGroups();
+            fixedCells = null;
+            observedFlows = null;
             
             originLoaded = true;
 
@@ -270,6 +339,12 @@ public class DataHandler {
                 destinationID[i - indexOffset] = data[i][0];
                 destination[i - indexOffset] = Double.parseDouble(data[i][1]);
             }            
+            destinationIndex = index(destinationID);
+            
+            //any capacities, fixed cells and observed flows belonged to the previous destinations
+            capacity = null;
+            fixedCells = null;
+            observedFlows = null;
 
             destinationLoaded = true;
                       
@@ -285,6 +360,7 @@ public class DataHandler {
         try{
             distanceFile = filePath;
             distance = load2DimensionDoubles(filePath);
+            opportunityIndex = null;
             distanceLoaded = true;
         }catch (Exception e){
             distanceLoaded =false;
@@ -296,7 +372,7 @@ public class DataHandler {
     
     
     
-    private String[][] loadFile(String filePath){
+    String[][] loadFile(String filePath){
         
         File f = new File(filePath);
         
@@ -305,9 +381,9 @@ public class DataHandler {
         try {
             csv.loadData(f);
         } catch (IOException ex) {
-            SpatialInteractionModel.getCurrent().report(ex.getMessage());
+            SpatialInteractionModel.log(ex.getMessage());
             for (StackTraceElement ste: ex.getStackTrace()) {
-                SpatialInteractionModel.getCurrent().report(ste.toString());
+                SpatialInteractionModel.log(ste.toString());
             }
             
             return null;
@@ -356,9 +432,9 @@ public class DataHandler {
                 return true;
                 
             } catch (Exception ex) {
-                SpatialInteractionModel.getCurrent().report(ex.getMessage());
+                SpatialInteractionModel.log(ex.getMessage());
                 for (StackTraceElement ste: ex.getStackTrace()) {
-                    SpatialInteractionModel.getCurrent().report(ste.toString());
+                    SpatialInteractionModel.log(ste.toString());
                 }
                 
                 return false;
@@ -498,7 +574,7 @@ public class DataHandler {
         return d;
     }
     
-    public void storeBestFitResult(double[][] flowMatrix, double entropy, double distance, double fitness){
+    public void storeBestFitResult(double[][] flowMatrix, double entropy, double distance, double fitness, double[] parameters){
         if (fitness > bestFitStat){
             bestFit = new double[flowMatrix.length][flowMatrix[0].length];
 
@@ -518,10 +594,11 @@ public class DataHandler {
             bestFitDisance = distance;
             bestFitEntroy = entropy;
             bestFitStat = fitness;
+            bestFitParameters = parameters.clone();
         }
     }
     
-    public void storeFinalRunResult(double[][] flowMatrix, double entropy, double distance){
+    public void storeFinalRunResult(double[][] flowMatrix, double entropy, double distance, double[] parameters){
         finalRun = new double[flowMatrix.length][flowMatrix[0].length];
 
         double dist = 0.0;
@@ -540,13 +617,36 @@ public class DataHandler {
         
         finalRunDisance = distance;
         finalRunEntroy = entropy;
+        finalRunParameters = parameters.clone();
+    }
+    
+    /**
+     * @return the fitness statistic of the best fit so far
+     */
+    public double getBestFitStat(){
+        return bestFitStat;
+    }
+    
+    /**
+     * @return the flows of the best fit, this must not be changed
+     */
+    public double[][] getBestFit(){
+        return bestFit;
+    }
+    
+    /**
+     * @return the model parameters that produced the best fit so far
+     */
+    public double[] getBestFitParameters(){
+        return bestFitParameters;
     }
     
     public void saveOutputs(){
         
         File dist = new File(destinationFile);
         File outputFolder = new File(dist.getParent() + System.getProperty("file.separator") + "outputs");
-        if (outputFolder.mkdir()){
+        //write the outputs whether or not an earlier run created the folder
+        if (outputFolder.isDirectory() || outputFolder.mkdir()){
 
             double[][] bfProb = new double[bestFit.length][bestFit[0].length];
             double[][] frProb = new double[finalRun.length][finalRun[0].length];
@@ -574,13 +674,14 @@ public class DataHandler {
 
             String bfMatrixString[][]=new String[bestFit.length * bestFit[0].length][3];
             String bfProbabilityString[][]=new String[bestFit.length * bestFit[0].length][3];
-            String bfStatsString[][]=new String[2][2];
+            String bfStatsString[][]=new String[2 + bestFitParameters.length][2];
             String bfFlowMatrixString[][]=new String[bestFit.length][bestFit[0].length];
 
             bfStatsString[0][0] = "Distance";
             bfStatsString[0][1] = Double.toString(bestFitDisance);
             bfStatsString[1][0] = "Entropy";
             bfStatsString[1][1] = Double.toString(bestFitEntroy);
+            addParameters(bfStatsString, bestFitParameters);
 
 
             int c = 0;
@@ -603,13 +704,14 @@ public class DataHandler {
 
             String frMatrixString[][]=new String[finalRun.length * finalRun[0].length][3];
             String frProbabilityString[][]=new String[bestFit.length * bestFit[0].length][3];
-            String frStatsString[][]=new String[2][2];
+            String frStatsString[][]=new String[2 + finalRunParameters.length][2];
             String frFlowMatrixString[][]=new String[bestFit.length][bestFit[0].length];
 
             frStatsString[0][0] = "Distance";
             frStatsString[0][1] = Double.toString(finalRunDisance);
             frStatsString[1][0] = "Entropy";
             frStatsString[1][1] = Double.toString(finalRunEntroy);
+            addParameters(frStatsString, finalRunParameters);
 
             c = 0;
             for(int i=0; i<finalRun.length;i++){
@@ -640,6 +742,18 @@ public class DataHandler {
         
     }
     
+    //add the parameter values to the rows after the distance and entropy
+    private void addParameters(String[][] stats, double[] parameters){
+        for (int i = 0; i < parameters.length; i++) {
+            if ( parameters.length == getParameterCount() ){
+                stats[2 + i][0] = getParameterName(i);
+            }else{
+                stats[2 + i][0] = "Beta " + (i + 1);
+            }
+            stats[2 + i][1] = Double.toString(parameters[i]);
+        }
+    }
+    
     private void calculateProbabilities(double[][] probabilityMatrix, double[][] flowMatrix){
         double iTot;
         for(int i=0;i<flowMatrix.length;i++){
@@ -659,6 +773,516 @@ public class DataHandler {
     }
     
 
+    /**
+     * @return the constraint applied by the model, one of the DoubleModel constants
+     */
+    public int getModelConstraint(){
+        return modelConstraint;
+    }
+    
+    /**
+     * @param modelConstraint the constraint applied by the model, one of the DoubleModel constants
+     */
+    public void setModelConstraint(int modelConstraint){
+        this.modelConstraint = modelConstraint;
+    }
+    
+    /**
+     * @return the deterrence used by the models
+     */
+    public IDeterrence getDeterrenceFunction(){
+        return deterrenceFunction;
+    }
+    
+    /**
+     * @param deterrenceFunction the deterrence used by the models
+     */
+    public void setDeterrenceFunction(IDeterrence deterrenceFunction){
+        this.deterrenceFunction = deterrenceFunction;
+    }
+    
+    /**
+     * @return the generalised cost of several modes used for the deterrence or null
+     * if the deterrence is calculated from the distances
+     */
+    public GeneralisedCost getGeneralisedCost(){
+        return generalisedCost;
+    }
+    
+    /**
+     * @param generalisedCost the generalised cost of several modes to calculate the 
+     * deterrence from or null to use the distances.  The distances are still used 
+     * for the distance the models are calibrated to.
+     */
+    public void setGeneralisedCost(GeneralisedCost generalisedCost){
+        this.generalisedCost = generalisedCost;
+    }
+    
+    /**
+     * Load a skim in the same form as the distances for the loaded origins and destinations
+     * 
+     * @param filePath the skim file
+     * @return the skim, -1 where a pair is missing, or null if the file could not be loaded
+     */
+    public double[][] loadSkim(String filePath){
+        try{
+            return load2DimensionDoubles(filePath);
+        }catch(Exception e){
+            SpatialInteractionModel.log("Unable to load skim " + filePath + " " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * @return the competing destinations term or null if it is not used
+     */
+    public CompetingDestinations getCompetingDestinations(){
+        return competingDestinations;
+    }
+    
+    /**
+     * @param competingDestinations the competing destinations term or null to not
+     * use it.  The term adds a delta parameter after the deterrence parameters.
+     */
+    public void setCompetingDestinations(CompetingDestinations competingDestinations){
+        this.competingDestinations = competingDestinations;
+    }
+    
+    /**
+     * @return the capacity of each destination, infinite if it is not capped, or null
+     * if no capacities are loaded.  This must not be changed.
+     */
+    public double[] getCapacities(){
+        return capacity;
+    }
+    
+    /**
+     * @param capacity the capacity of each destination, infinite if it is not capped, 
+     * or null to remove the capacities
+     */
+    public void setCapacities(double[] capacity){
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Load the capacities of the capacity constrained model from a file of 
+     * destination and capacity pairs.  Destinations that are not listed are not capped.
+     * 
+     * @param filePath the capacities file
+     * @return true if the file was loaded
+     */
+    public boolean loadCapacities(String filePath){
+        String[][] data = loadFile(filePath);
+        if ( data == null ){return false;}
+        
+        double[] c = new double[destination.length];
+        Arrays.fill(c, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < data.length; i++) {
+            int j = getDestinationIndex(data[i][0]);
+            if ( j < 0 ){continue;}
+            try{
+                c[j] = Double.parseDouble(data[i][1]);
+            }catch(NumberFormatException e){
+                SpatialInteractionModel.log("Unable to read the capacity of " + data[i][0]);
+                return false;
+            }
+        }
+        capacity = c;
+        return true;
+    }
+    
+    /**
+     * @return the observed flows the models are calibrated to or null if they are 
+     * calibrated to the observed distance
+     */
+    public SparseMatrix getObservedFlows(){
+        return observedFlows;
+    }
+    
+    /**
+     * @param observedFlows the observed flows the models are calibrated to or null
+     * to calibrate to the observed distance
+     */
+    public void setObservedFlows(SparseMatrix observedFlows){
+        this.observedFlows = observedFlows;
+    }
+    
+    /**
+     * Load the observed flows the models are calibrated to from a file of origin, 
+     * destination and flow rows, the pairs that are not in the file have no flow
+     * 
+     * @param filePath the observed flows file
+     * @return true if every row was for a loaded origin and destination
+     */
+    public boolean loadObservedFlows(String filePath){
+        observedFlows = SparseMatrix.load(filePath);
+        return observedFlows != null;
+    }
+    
+    /**
+     * @return the statistic comparing the flows to the observed flows
+     */
+    public SparseGOF getFitStatistic(){
+        return fitStatistic;
+    }
+    
+    /**
+     * @param testType the GOFFactory test comparing the flows to the observed flows
+     */
+    public void setFitStatistic(int testType){
+        fitStatistic = new SparseGOF(testType);
+    }
+    
+    /**
+     * @return the known flows the models keep as they are or null if there are none
+     */
+    public FixedCells getFixedCells(){
+        return fixedCells;
+    }
+    
+    /**
+     * @param fixedCells the known flows the models keep as they are or null for none
+     */
+    public void setFixedCells(FixedCells fixedCells){
+        this.fixedCells = fixedCells;
+    }
+    
+    /**
+     * Load known flows from a file of origin, destination and flow rows
+     * 
+     * @param filePath the fixed cells file
+     * @return true if every row was for a loaded origin and destination and the 
+     * fixed flows of each zone are no more than its weight
+     */
+    public boolean loadFixedCells(String filePath){
+        SparseMatrix cells = SparseMatrix.load(filePath);
+        if ( cells == null ){return false;}
+        
+        //the model could not balance a zone whose fixed flows are more than its weight
+        boolean valid = true;
+        double[] rowTotals = cells.getRowTotals();
+        for (int i = 0; i < rowTotals.length; i++) {
+            if ( rowTotals[i] > origin[i] + FIXED_TOLERANCE ){
+                SpatialInteractionModel.log("The fixed flows from origin " + originID[i] + " are " 
+                        + rowTotals[i] + ", more than its weight " + origin[i]);
+                valid = false;
+            }
+        }
+        double[] columnTotals = cells.getColumnTotals();
+        for (int j = 0; j < columnTotals.length; j++) {
+            if ( columnTotals[j] > destination[j] + FIXED_TOLERANCE ){
+                SpatialInteractionModel.log("The fixed flows into destination " + destinationID[j] + " are " 
+                        + columnTotals[j] + ", more than its weight " + destination[j]);
+                valid = false;
+            }
+        }
+        if ( !valid ){return false;}
+        
+        fixedCells = new FixedCells(cells);
+        return true;
+    }
+    
+    /**
+     * @return the destinations of each origin in order of distance, built from the
+     * distances the first time it is needed
+     */
+    public synchronized OpportunityIndex getOpportunityIndex(){
+        if ( opportunityIndex == null ){
+            opportunityIndex = new OpportunityIndex(distance, Runtime.getRuntime().availableProcessors());
+        }
+        return opportunityIndex;
+    }
+    
+    /**
+     * Load the distances between the destinations in the same form as the distances
+     * 
+     * @param filePath the destination distances file
+     * @return the distances, -1 where a pair is missing, or null if the file could not be loaded
+     */
+    public double[][] loadDestinationDistances(String filePath){
+        try{
+            return load2DimensionDoubles(filePath, destinationID, destinationID);
+        }catch(Exception e){
+            SpatialInteractionModel.log("Unable to load destination distances " + filePath + " " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Fill a row of deterrence values of a model using the loaded weights
+     * 
+     * @param originIndex the origin of the row
+     * @param parameters the parameters of all of the origin groups
+     * @param row the array to fill
+     */
+    public void fillDeterrence(int originIndex, double[] parameters, double[] row){
+        fillDeterrence(originIndex, parameters, origin, destination, row);
+    }
+    
+    /**
+     * Fill a row of deterrence values from the distances or the generalised cost
+     * 
+     * @param originIndex the origin of the row
+     * @param parameters the parameters of all of the origin groups
+     * @param origins the origin weights of the model being solved
+     * @param destinations the destination weights of the model being solved
+     * @param row the array to fill
+     */
+    public void fillDeterrence(int originIndex, double[] parameters, double[] origins, double[] destinations, double[] row){
+        if ( deterrenceFunction instanceof IOpportunityDeterrence ){
+            ((IOpportunityDeterrence)deterrenceFunction).fill(originIndex, origins, destinations, parameters, getParameterOffset(originIndex), row);
+        }else if ( generalisedCost == null ){
+            ((IDeterrenceFunction)deterrenceFunction).fill(distance[originIndex], parameters, getParameterOffset(originIndex), row);
+        }else{
+            generalisedCost.fill(originIndex, (IDeterrenceFunction)deterrenceFunction, parameters, getParameterOffset(originIndex), row);
+        }
+        if ( competingDestinations != null ){
+            double[] factors = competingDestinations.getFactors(parameters[parameters.length - 1], destinations);
+            for (int j = 0; j < row.length; j++) {row[j] *= factors[j];}
+        }
+        //the fixed cells take no part in the distribution of the other trips
+        if ( fixedCells != null ){fixedCells.clear(originIndex, row);}
+    }
+    
+    /**
+     * @return true if the deterrence rows depend on the weights of the model as 
+     * well as on the parameters, so they must be filled again when the weights change
+     */
+    public boolean dependsOnWeights(){
+        return deterrenceFunction instanceof IOpportunityDeterrence || competingDestinations != null;
+    }
+    
+    /**
+     * @param originIndex a valid origin index
+     * @param parameters the parameters of all of the origin groups
+     * @return the parameters the deterrence of the origin's row depends on
+     */
+    public double[] getRowParameters(int originIndex, double[] parameters){
+        int offset = getParameterOffset(originIndex);
+        int count = deterrenceFunction.getParameterCount();
+        double[] used = Arrays.copyOfRange(parameters, offset, offset + count + (competingDestinations == null ? 0 : 1));
+        if ( competingDestinations != null ){used[count] = parameters[parameters.length - 1];}
+        return used;
+    }
+    
+    /**
+     * Load a tabulated deterrence function from a file of upper band distance 
+     * and deterrence value pairs in increasing distance order.
+     * 
+     * @param filePath the table file
+     * @return the deterrence function or null if the file could not be loaded
+     */
+    public IDeterrenceFunction loadDeterrenceTable(String filePath){
+        try{
+            double[][] bands = loadBands(filePath);
+            return new TabulatedDeterrence(bands[0], bands[1]);
+        }catch(Exception e){
+            SpatialInteractionModel.log("Unable to load deterrence table " + filePath + " " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Load an observed trip length distribution from a file of upper band distance
+     * and flow pairs in increasing distance order.
+     * 
+     * @param filePath the trip length file
+     * @return the upper distances and the flows or null if the file could not be loaded
+     */
+    public double[][] loadTripLengths(String filePath){
+        try{
+            return loadBands(filePath);
+        }catch(Exception e){
+            SpatialInteractionModel.log("Unable to load trip lengths " + filePath + " " + e.getMessage());
+            return null;
+        }
+    }
+    
+    //the upper distances and values of a file of distance bands
+    private double[][] loadBands(String filePath){
+        String[][] data = loadFile(filePath);
+        List<double[]> bands = new ArrayList<double[]>();
+        for (int i = 0; i < data.length; i++) {
+            try{
+                bands.add(new double[]{Double.parseDouble(data[i][0]), Double.parseDouble(data[i][1])});
+            }catch(NumberFormatException e){
+                //skip the header
+            }
+        }
+        double[] upper = new double[bands.size()];
+        double[] values = new double[bands.size()];
+        for (int i = 0; i < upper.length; i++) {
+            upper[i] = bands.get(i)[0];
+            values[i] = bands.get(i)[1];
+        }
+        return new double[][]{upper, values};
+    }
+    
+    /**
+     * @return the number of parameters in the model, the parameters of the 
+     * deterrence function for each origin group
+     */
+    public int getParameterCount(){
+        return getBetaCount() * deterrenceFunction.getParameterCount() + (competingDestinations == null ? 0 : 1);
+    }
+    
+    /**
+     * @param originIndex a valid origin index
+     * @return the index of the first parameter used by the origin
+     */
+    public int getParameterOffset(int originIndex){
+        return getBetaGroup(originIndex) * deterrenceFunction.getParameterCount();
+    }
+    
+    /**
+     * @param parameterIndex a valid parameter index
+     * @return the name of the deterrence function parameter followed by the origin group
+     */
+    public String getParameterName(int parameterIndex){
+        if ( competingDestinations != null && parameterIndex == getParameterCount() - 1 ){return "Delta";}
+        String[] names = deterrenceFunction.getParameterNames();
+        String name = names[parameterIndex % names.length];
+        if ( betaGroupID != null ){name += " " + getBetaGroupID(parameterIndex / names.length);}
+        return name;
+    }
+    
+    /**
+     * @param name the name of the output file
+     * @return the file in the outputs folder next to the destinations file, 
+     * the folder is created if it does not exist
+     */
+    public File getOutputFile(String name){
+        File outputFolder = new File(new File(destinationFile).getParent() + System.getProperty("file.separator") + "outputs");
+        if ( !outputFolder.isDirectory() ){outputFolder.mkdir();}
+        return new File(outputFolder, name);
+    }
+    
+    /**
+     * @return the initial parameters of the deterrence function repeated for each origin group
+     */
+    public double[] getInitialParameters(){
+        double[] initial = deterrenceFunction.getInitialParameters();
+        double[] parameters = new double[getParameterCount()];
+        //a competing destinations delta starts at 0, the plain model
+        for (int i = 0; i < getBetaCount() * initial.length; i++) {
+            parameters[i] = initial[i % initial.length];
+        }
+        return parameters;
+    }
+    
+    /**
+     * @return the number of beta parameters in the model, one per origin group
+     */
+    public int getBetaCount(){
+        return betaGroupID == null ? 1 : betaGroupID.length;
+    }
+    
+    /**
+     * @param originIndex a valid origin index
+     * @return the index of the beta used by the origin
+     */
+    public int getBetaGroup(int originIndex){
+        return betaGroup == null ? 0 : betaGroup[originIndex];
+    }
+    
+    /**
+     * @param betaIndex a valid beta index
+     * @return the name of the origin group that uses the beta
+     */
+    public String getBetaGroupID(int betaIndex){
+        return betaGroupID == null ? "all origins" : betaGroupID[betaIndex];
+    }
+    
+    /**
+     * Use one beta for all of the origins
+     */
+    public void clearBetaGroups(){
+        betaGroup = null;
+        betaGroupID = null;
+    }
+    
+    /**
+     * Use a separate beta for each origin, the origins must be loaded first
+     */
+    public void setOriginSpecificBetas(){
+        betaGroup = new int[origin.length];
+        betaGroupID = new String[origin.length];
+        for (int i = 0; i < origin.length; i++) {
+            betaGroup[i] = i;
+            betaGroupID[i] = originID[i];
+        }
+    }
+    
+    /**
+     * Load the groups of origins that share a beta from a file of origin 
+     * identifier and group name pairs.  Origins that are not in the file 
+     * share one extra beta.  The origins must be loaded first.
+     * 
+     * @param filePath the groups file
+     * @return true if the file was loaded
+     */
+    public boolean loadOriginGroups(String filePath){
+        try{
+            String[][] data = loadFile(filePath);
+            
+            int[] groups = new int[origin.length];
+            Arrays.fill(groups, -1);
+            List<String> ids = new ArrayList<String>();
+            
+            for (int i = 0; i < data.length; i++) {
+                int o = getOriginIndex(data[i][0]);
+                //skips the header and any origins that are not loaded
+                if ( o < 0 ){continue;}
+                int g = ids.indexOf(data[i][1]);
+                if ( g < 0 ){
+                    g = ids.size();
+                    ids.add(data[i][1]);
+                }
+                groups[o] = g;
+            }
+            
+            for (int i = 0; i < groups.length; i++) {
+                if ( groups[i] < 0 ){
+                    if ( !ids.contains("Ungrouped") ){ids.add("Ungrouped");}
+                    groups[i] = ids.indexOf("Ungrouped");
+                }
+            }
+            
+            betaGroup = groups;
+            betaGroupID = ids.toArray(new String[ids.size()]);
+            return true;
+            
+        }catch(Exception e){
+            SpatialInteractionModel.log("Unable to load origin groups " + filePath);
+            return false;
+        }
+    }
+
+    /**
+     * @param id an origin identifier
+     * @return the index of the origin or -1 if it is not loaded
+     */
+    public int getOriginIndex(String id){
+        Integer i = originIndex.get(id);
+        return i == null ? -1 : i;
+    }
+    
+    /**
+     * @param id a destination identifier
+     * @return the index of the destination or -1 if it is not loaded
+     */
+    public int getDestinationIndex(String id){
+        Integer j = destinationIndex.get(id);
+        return j == null ? -1 : j;
+    }
+    
+    //the index of each identifier, the first if it is repeated
+    private static HashMap<String, Integer> index(String[] ids){
+        HashMap<String, Integer> index = new HashMap<String, Integer>(ids.length * 2);
+        for (int i = ids.length - 1; i >= 0; i--) {index.put(ids[i], i);}
+        return index;
+    }
+
     /**
      * @return the originID
      */
@@ -21,15 +21,36 @@
 
 package simodel;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
-import uk.ac.leeds.mass.optimisation.simulatedannealing.ISimulatedAnnealing;
+import uk.ac.leeds.mass.fmf.fit_statistics.SparseGOF;
+import uk.ac.leeds.mass.fmf.generic_algorithms.AdaptiveStepSize;
+import uk.ac.leeds.mass.fmf.generic_algorithms.ICheckpointable;
+import uk.ac.leeds.mass.fmf.generic_algorithms.IOptimisable;
+import uk.ac.leeds.mass.fmf.generic_algorithms.ISpeculativeSimulatedAnnealing;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimisationBudget;
 
 
-public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
+public class DoubleModel implements ISpeculativeSimulatedAnnealing, ICheckpointable, IOptimisable{ //, Runnable{
     
     private boolean optimised = false;
     
+    //the members of Wilson's family of models, selected in the DataHandler
+    public static final int DOUBLY_CONSTRAINED = 0;
+    public static final int PRODUCTION_CONSTRAINED = 1;
+    public static final int ATTRACTION_CONSTRAINED = 2;
+    public static final int UNCONSTRAINED = 3;
+    public static final int CAPACITY_CONSTRAINED = 4;
+    
+    public static final String[] MODEL_NAMES = {
+        "doubly constrained", "production constrained", "attraction constrained", "unconstrained", "capacity constrained"
+    };
+    
     private double[] beta;
     private int betaIndex = -1;
     private double originalBeta = 0.0;
@@ -38,8 +59,19 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
     private double[] bj = null;
     private double[] ai_original = null;
     private double[] bj_original = null;
+    private double[][] results = null;
     private double[][] originalResults = null;
     
+    //deterrence function values for each origin row, rows are only recalculated when
+    //the parameters for the row change and are replaced rather than written into so
+    //they can be shared with the original state and the candidates
+    private double[][] deterrence = null;
+    private double[][] rowBeta = null;
+    private double[][] originalDeterrence = null;
+    private double[][] originalRowBeta = null;
+    //the weights the deterrence was filled from, for the deterrence that depends on them
+    private Object[] deterrenceFrom = null;
+    
     private double distance = 0.0;
     private double entropy = 0.0;
     private double originalDistance = 0.0;
@@ -53,8 +85,44 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
     
     private Random random;
     
-    private static boolean firstChange = true;
+    private boolean firstChange = true;
     private double changeValue = 0.01;
+    //the next beta to change, the betas are changed in turn
+    private int coordinate = 0;
+    
+    //the beta values span several orders of magnitude so the changes are made 
+    //to their logarithm starting with steps of around 50%
+    private static final double INITIAL_STEP_SIZE = 0.5;
+    private static final double MINIMUM_STEP_SIZE = 1.0E-6;
+    private static final double MAXIMUM_STEP_SIZE = 5.0;
+    private boolean adaptiveProposals = true;
+    private AdaptiveStepSize stepSize = null;
+    //a change that stops the model balancing is put back straight away, it should
+    //count as a rejection when tuning the step size even if it is then 'accepted'
+    private boolean changeFailed = false;
+    
+    //optional time limit tested during balancing
+    private OptimisationBudget budget = null;
+    
+    //start the balancing from the Ai and Bj of the last successful run
+    private boolean warmStart = false;
+    private boolean solved = false;
+    
+    //weights used instead of the loaded ones by a what-if scenario or a class of 
+    //a multi-class model, null to use the DataHandler
+    private double[] originWeights = null;
+    private double[] destinationWeights = null;
+    //the distance the fitness is measured against for a class, NaN to use the DataHandler
+    private double observedDistance = Double.NaN;
+    
+    //the fitness against the observed flows and the results it was calculated from
+    private double flowFitness = 0.0;
+    private double[][] flowFitnessResults = null;
+    
+    //the weights less the flows of the fixed cells and what they were calculated from
+    private double[] freeOrigin = null;
+    private double[] freeDestination = null;
+    private Object[] freeFrom = null;
     
     
     public DoubleModel(Random random){
@@ -79,28 +147,37 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
     
     private boolean runModel(){
         
-        ai = new double[data.getOrigin().length];
-        for (int i = 0; i < ai.length; i++) {ai[i] = 1.0;}
-        bj = new double[data.getDestination().length];
-        for (int j = 0; j < bj.length; j++) {bj[j] = 1.0;}
+        //each run gets a new results matrix so the previous one can be kept 
+        //for rejectChange without copying it
+        results = new double[getOriginWeights().length][getDestinationWeights().length];
         
-        double dist = 0.0;
+        updateDeterrence();
         
-        if ( calculateAiBj() ){
-            distance = 0.0;
-            double[][] res = data.getResults();
-            
-            //calculate the distance for the system
-            for (int i = 0; i < res.length; i++) {
-                for (int j = 0; j < res[i].length; j++) {
-                    dist = data.getDistance(i,j) == -1.0 ? 0.0 : data.getDistance(i,j);
-                    distance += ( res[i][j] * dist );
-                }
-            }
-            
-            //calculate the entropy value
-            entropy = (new uk.ac.leeds.mass.statistics.gof.Entropy()).test(res, res);
-            
+        if ( warmStart && solved ){
+            //copied as the previous arrays may be shared
+            ai = ai.clone();
+            bj = bj.clone();
+        }else{
+            ai = new double[getOriginWeights().length];
+            for (int i = 0; i < ai.length; i++) {ai[i] = 1.0;}
+            bj = new double[getDestinationWeights().length];
+            for (int j = 0; j < bj.length; j++) {bj[j] = 1.0;}
+        }
+        
+        //only the doubly and capacity constrained models need to iterate
+        switch ( data.getModelConstraint() ){
+            case DOUBLY_CONSTRAINED:
+                solved = calculateAiBj();
+                break;
+            case CAPACITY_CONSTRAINED:
+                solved = calculateCapacityConstrained();
+                break;
+            default:
+                solved = calculateSinglePass();
+        }
+        
+        if ( solved ){
+            calculateStatistics();
             return true;
         }else{
             return false;
@@ -109,6 +186,64 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
     }
     
     
+    //calculate the total distance and entropy of the flows
+    private void calculateStatistics(){
+        double dist = 0.0;
+        distance = 0.0;
+        double[][] res = results;
+
+        //calculate the distance for the system
+        for (int i = 0; i < res.length; i++) {
+            for (int j = 0; j < res[i].length; j++) {
+                dist = data.getDistance(i,j) == -1.0 ? 0.0 : data.getDistance(i,j);
+                distance += ( res[i][j] * dist );
+            }
+        }
+
+        //calculate the entropy value
+        entropy = (new uk.ac.leeds.mass.fmf.fit_statistics.Entropy()).test(res, res);
+    }
+    
+    
+    /*******************************************************************************************/
+    /* Recalculate the deterrence rows of the origins whose parameters have changed.  Origins  */
+    /* share parameters if they are in the same group in the DataHandler.                      */
+    /*******************************************************************************************/
+    private void updateDeterrence(){
+        double[] o = getOriginWeights();
+        double[] d = getDestinationWeights();
+        int origins = o.length;
+        
+        //a deterrence that depends on the weights is filled again when they change
+        boolean weightsChanged = deterrenceFrom == null || deterrenceFrom[0] != o || deterrenceFrom[1] != d;
+        
+        double[][] det;
+        double[][] rb;
+        if ( deterrence == null || deterrence.length != origins || (weightsChanged && data.dependsOnWeights()) ){
+            det = new double[origins][];
+            rb = new double[origins][];
+        }else{
+            //copy the row references so the rows that do not change are shared
+            det = deterrence.clone();
+            rb = rowBeta.clone();
+        }
+        
+        for (int i = 0; i < origins; i++) {
+            double[] used = data.getRowParameters(i, beta);
+            if ( det[i] == null || !Arrays.equals(rb[i], used) ){
+                double[] row = new double[d.length];
+                data.fillDeterrence(i, beta, o, d, row);
+                det[i] = row;
+                rb[i] = used;
+            }
+        }
+        
+        deterrence = det;
+        rowBeta = rb;
+        if ( weightsChanged ){deterrenceFrom = new Object[]{o, d};}
+    }
+    
+    
     /*******************************************************************************************/
     /* Balance the Ai and Bj weights to make sure the model can converge on a solution that    */
     /* adds up correctly having the correct origin and destination totals                      */
@@ -118,23 +253,25 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
         int maximumIterations = 5000;
         double threshold = 1.0;
         boolean convergence = false;
-        double[] destTotals = new double[data.getDestination().length];
-        double[] origTotals = new double[data.getOrigin().length];
+        double[] destTotals = new double[getDestinationWeights().length];
+        double[] origTotals = new double[getOriginWeights().length];
 
         int mainCounter = 0;
         
         while ( !convergence && mainCounter < maximumIterations ){
             
+            //give up on this run if the calibration has run out of time
+            if ( budget != null && budget.isExpired() ){return false;}
         
             convergence = true;
             
-            for (int i = 0; i < data.getOrigin().length; i++) {
+            for (int i = 0; i < getOriginWeights().length; i++) {
 
                 calculateAi(i);
 
             }
             
-            for (int j = 0; j < data.getDestination().length; j++) {
+            for (int j = 0; j < getDestinationWeights().length; j++) {
 
                 calculateBj(j);
 
@@ -144,7 +281,7 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
             
             calculate();
             
-            double[][] res = data.getResults();
+            double[][] res = results;
 
             for (int i=0;i<origTotals.length; i++){origTotals[i] = 0.0;}
             for (int j=0;j<destTotals.length; j++){destTotals[j] = 0.0;}
@@ -155,15 +292,21 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
                     origTotals[i]+=res[i][j];
                 }
             }
+            
+            //a beta large enough to underflow the exponential gives NaN flows
+            //which would otherwise pass the threshold tests below
             for (int i = 0; i < origTotals.length; i++) {
-                if (Math.abs(origTotals[i] - data.getOrigin()[i]) > threshold){
+                if (Double.isNaN(origTotals[i])){return false;}
+            }
+            for (int i = 0; i < origTotals.length; i++) {
+                if (Math.abs(origTotals[i] - getOriginWeights()[i]) > threshold){
                     convergence = false;
                     break;
                 }
             }
             if (convergence){
                 for (int i = 0; i < destTotals.length; i++) {
-                    if (Math.abs(destTotals[i] - data.getDestination()[i]) > threshold){
+                    if (Math.abs(destTotals[i] - getDestinationWeights()[i]) > threshold){
                         convergence = false;
                         break;
                     }
@@ -178,7 +321,7 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
         }
 
         if( convergence ){
-            SpatialInteractionModel.getCurrent().report("Balancing complete iteration " + mainCounter);
+            SpatialInteractionModel.log("Balancing complete iteration " + mainCounter);
             return true;
             
         }
@@ -188,6 +331,177 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
     }
     
 
+    /*******************************************************************************************/
+    /* The singly constrained and unconstrained models have closed form Ai and Bj terms that   */
+    /* are calculated in one pass over the matrix.  The term that is not constrained stays 1.  */
+    /*******************************************************************************************/
+    private boolean calculateSinglePass(){
+        
+        double[] o = getFreeOriginWeights();
+        double[] d = getFreeDestinationWeights();
+        
+        switch ( data.getModelConstraint() ){
+            case PRODUCTION_CONSTRAINED:
+                for (int i = 0; i < o.length; i++) {
+                    calculateAi(i);
+                    //an origin with trips must be able to reach a destination
+                    if ( o[i] > 0.0 && !(ai[i] > 0.0 && ai[i] < Double.POSITIVE_INFINITY) ){return false;}
+                }
+                break;
+            case ATTRACTION_CONSTRAINED:
+                for (int j = 0; j < d.length; j++) {
+                    calculateBj(j);
+                    if ( d[j] > 0.0 && !(bj[j] > 0.0 && bj[j] < Double.POSITIVE_INFINITY) ){return false;}
+                }
+                break;
+            default:
+                //one factor scales the total flow to the total of the origins
+                double total = 0.0;
+                double trips = 0.0;
+                for (int i = 0; i < o.length; i++) {
+                    double[] row = deterrence[i];
+                    double sum = 0.0;
+                    for (int j = 0; j < d.length; j++) {sum += d[j] * row[j];}
+                    total += o[i] * sum;
+                    trips += o[i];
+                }
+                double k = trips / total;
+                if ( !(k > 0.0 && k < Double.POSITIVE_INFINITY) ){return false;}
+                for (int i = 0; i < ai.length; i++) {ai[i] = k;}
+        }
+        
+        calculate();
+        
+        return true;
+    }
+    
+
+    /*******************************************************************************************/
+    /* The capacity constrained model is production constrained with the flow into a capped    */
+    /* destination held at or below its capacity.  Bj is 1 for a destination under capacity   */
+    /* and scales down the flows into a destination held at capacity so the other             */
+    /* destinations take the excess.  The inner sweeps only rebalance the active capped        */
+    /* destinations, updating each origin's Ai denominator by the change in their Bj, and a    */
+    /* full pass over the capped destinations then finds any that have gone over capacity.    */
+    /*******************************************************************************************/
+    private boolean calculateCapacityConstrained(){
+        
+        int maximumIterations = 5000;
+        //much tighter than the doubly constrained threshold as the capacities are hard
+        //limits and the inner sweeps only visit the active destinations
+        double threshold = 1.0E-6;
+        double[] o = getFreeOriginWeights();
+        double[] d = getFreeDestinationWeights();
+        double[] capacity = data.getCapacities();
+        if ( capacity != null && data.getFixedCells() != null ){
+            //the fixed flows use up some of the capacity
+            capacity = capacity.clone();
+            for (int j = 0; j < capacity.length; j++) {
+                capacity[j] = Math.max(0.0, capacity[j] - data.getFixedCells().getColumnTotal(j));
+            }
+        }
+        
+        //the capped destinations, a warm start keeps the Bj of the ones at capacity
+        List<Integer> capped = new ArrayList<Integer>();
+        for (int j = 0; j < d.length; j++) {
+            if ( capacity != null && capacity[j] < Double.POSITIVE_INFINITY ){
+                capped.add(j);
+                bj[j] = bj[j] > 0.0 ? Math.min(1.0, bj[j]) : 1.0;
+            }else{
+                bj[j] = 1.0;
+            }
+        }
+        
+        double[] denominator = new double[o.length];
+        List<Integer> active = new ArrayList<Integer>();
+        boolean[] isActive = new boolean[d.length];
+        for (int j : capped) {
+            if ( bj[j] < 1.0 ){
+                active.add(j);
+                isActive[j] = true;
+            }
+        }
+        
+        int counter = 0;
+        boolean convergence = false;
+        while ( !convergence && counter < maximumIterations ){
+            
+            if ( budget != null && budget.isExpired() ){return false;}
+            
+            //recalculate the denominators in full so the incremental updates do not drift
+            for (int i = 0; i < o.length; i++) {
+                calculateAi(i);
+                if ( o[i] > 0.0 && !(ai[i] > 0.0 && ai[i] < Double.POSITIVE_INFINITY) ){return false;}
+                denominator[i] = ai[i] > 0.0 ? 1.0 / ai[i] : 0.0;
+            }
+            
+            //the full pass, any capped destination over capacity becomes active
+            convergence = true;
+            for (int j : capped) {
+                double error = inflow(j) - capacity[j];
+                if ( error > threshold ){
+                    convergence = false;
+                    if ( !isActive[j] ){
+                        active.add(j);
+                        isActive[j] = true;
+                    }
+                }else if ( isActive[j] && bj[j] < 1.0 && error < -threshold ){
+                    convergence = false;
+                }
+            }
+            if ( convergence ){break;}
+            
+            //rebalance the active destinations
+            double largest = Double.POSITIVE_INFINITY;
+            while ( largest > threshold && counter < maximumIterations ){
+                counter++;
+                largest = 0.0;
+                for (int j : active) {
+                    double in = inflow(j);
+                    double target = in > 0.0 ? Math.min(1.0, bj[j] * capacity[j] / in) : 1.0;
+                    if ( !(bj[j] == 1.0 && in <= capacity[j]) ){
+                        largest = Math.max(largest, Math.abs(in - capacity[j]));
+                    }
+                    double change = target - bj[j];
+                    if ( change == 0.0 ){continue;}
+                    for (int i = 0; i < o.length; i++) {
+                        denominator[i] += change * d[j] * deterrence[i][j];
+                    }
+                    bj[j] = target;
+                }
+                for (int i = 0; i < o.length; i++) {
+                    ai[i] = denominator[i] > 0.0 ? 1.0 / denominator[i] : 0.0;
+                }
+            }
+            
+            //destinations released back to Bj of 1 are no longer active
+            for (int k = active.size() - 1; k >= 0; k--) {
+                int j = active.get(k);
+                if ( bj[j] >= 1.0 ){
+                    active.remove(k);
+                    isActive[j] = false;
+                }
+            }
+        }
+        
+        if ( !convergence ){return false;}
+        
+        calculate();
+        SpatialInteractionModel.log("Capacity balancing complete iteration " + counter + ", " + active.size() + " destinations at capacity");
+        return true;
+    }
+    
+    //the flow into a destination with the current Ai and Bj
+    private double inflow(int dest){
+        double sum = 0.0;
+        double[] o = getFreeOriginWeights();
+        for (int i = 0; i < o.length; i++) {
+            sum += ai[i] * o[i] * deterrence[i][dest];
+        }
+        return bj[dest] * getFreeDestinationWeights()[dest] * sum;
+    }
+    
+
     /*******************************************************************************************/
     /* Calculate the actual model equation once the Ai and Bj terms have been balanced.        */
     /*******************************************************************************************/
@@ -195,34 +509,23 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
         
         origin = 0;
         destination = 0;
+        double[] o = getFreeOriginWeights();
+        double[] d = getFreeDestinationWeights();
+        FixedCells fixed = data.getFixedCells();
         
         //cycle the origins using instance counter
-        for(; origin < data.getOrigin().length; origin++){
+        for(; origin < getOriginWeights().length; origin++){
                         
             //cycle the destinations  using instance counter
-            for(; destination < data.getDestination().length; destination++){
+            for(; destination < getDestinationWeights().length; destination++){
             
-                //get the distance value for this origin,destination pair
-                double distance = data.getDistance(origin, destination);
-                
-                //test and make sure our distances are valid
-                if (distance > -1.0){
-                    
-                    //calculate flow
-                    data.setResults(
-                            ai[origin]
-                            * bj[destination]
-                            * data.getOrigin()[origin]
-                            * data.getDestination()[destination]
-                            * Math.exp(distance * this.beta[0])
-                            ,origin
-                            ,destination
-                            );
-                    
-                }else{
-                    //tell the user about the discrepancy
-                    data.setResults(0.0,origin,destination);
-                }
+                //calculate flow, the deterrence is 0 where there is no valid distance
+                results[origin][destination] =
+                        ai[origin]
+                        * bj[destination]
+                        * o[origin]
+                        * d[destination]
+                        * deterrence[origin][destination];
                 
             //end destination cycle
             }
@@ -230,6 +533,8 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
             //reset destination
             destination = 0;
             
+            if ( fixed != null ){fixed.addTo(origin, results[origin]);}
+            
         //end origin cycle
         }
         
@@ -244,23 +549,14 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
             
         //create a variable to hold the sum of denominator values
         double denominator = 0.0;
+        double[] row = deterrence[orig];
+        double[] d = getFreeDestinationWeights();
         
-        //cycle the destinations   
-        for(int j = 0; j < data.getDestination().length; j++){
+        //cycle the destinations, summing all of the destination calculations
+        //for this origin into the denominator variable
+        for(int j = 0; j < getDestinationWeights().length; j++){
 
-            double den = 0.0;
-            
-            if (data.getDistance(orig, j) != -1.0){
-                //Sum all of the destination calculations for 
-                //this origin into the denominator variable
-                den += (
-                        bj[j]
-                        * data.getDestination()[j]
-                        * Math.exp(data.getDistance(orig, j) * beta[0])
-                        );
-            }
-            
-            denominator += den;
+            denominator += bj[j] * d[j] * row[j];
 
         //end destination cycle
         }
@@ -279,24 +575,13 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
     private void calculateBj(int dest){
         //create a variable to hold the sum of denominator values
         double denominator = 0.0;      
+        double[] o = getFreeOriginWeights();
 
-        //cycle the origins
-        for(int i = 0; i < data.getOrigin().length; i++){
+        //cycle the origins, summing all of the origin calculations
+        //for this destination into the denominator variable
+        for(int i = 0; i < getOriginWeights().length; i++){
 
-
-            double den = 0.0;
-            
-            if (data.getDistance(i, dest) != -1.0){
-                //Sum all of the origin calculations for 
-                //this destination into the denominator variable
-                den += (
-                        ai[i]
-                        * data.getOrigin()[i]
-                        * Math.exp(data.getDistance(i, dest) * beta[0])
-                        );
-            }
-            
-            denominator += den;
+            denominator += ai[i] * o[i] * deterrence[i][dest];
             
         //end origin cycle
         }
@@ -308,6 +593,249 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
           
     }
     
+    /**
+     * Give the model its own weights and observed distance, for one class of a 
+     * multi-class model.  The weights must not be changed while the model uses them.
+     * 
+     * @param origin the origin weights
+     * @param destination the destination weights
+     * @param observedDistance the distance the fitness is measured against
+     */
+    void setClass(double[] origin, double[] destination, double observedDistance){
+        originWeights = origin;
+        destinationWeights = destination;
+        this.observedDistance = observedDistance;
+        solved = false;
+    }
+    
+    /**
+     * @return the origin weights less the flows of the fixed cells, the trips the 
+     * model distributes.  These are the origin weights if there are no fixed cells.
+     */
+    public double[] getFreeOriginWeights(){
+        updateFree();
+        return freeOrigin;
+    }
+    
+    /**
+     * @return the destination weights less the flows of the fixed cells
+     */
+    public double[] getFreeDestinationWeights(){
+        updateFree();
+        return freeDestination;
+    }
+    
+    private void updateFree(){
+        FixedCells fixed = data.getFixedCells();
+        double[] o = getOriginWeights();
+        double[] d = getDestinationWeights();
+        if ( freeFrom != null && freeFrom[0] == o && freeFrom[1] == d && freeFrom[2] == fixed ){return;}
+        freeOrigin = fixed == null ? o : fixed.subtractRows(o);
+        freeDestination = fixed == null ? d : fixed.subtractColumns(d);
+        freeFrom = new Object[]{o, d, fixed};
+    }
+    
+    /**
+     * @return the origin weights used by this model
+     */
+    public double[] getOriginWeights(){
+        return originWeights == null ? data.getOrigin() : originWeights;
+    }
+    
+    /**
+     * @return the destination weights used by this model
+     */
+    public double[] getDestinationWeights(){
+        return destinationWeights == null ? data.getDestination() : destinationWeights;
+    }
+    
+    
+    /*******************************************************************************************/
+    /* What-if scenarios.  A copy of a solved model is given its own weights which are then    */
+    /* changed and the model re-solved from its current state.  Only the rows and columns the  */
+    /* changes reach are recalculated for the singly constrained models, the unconstrained     */
+    /* model is rescaled in one pass and the doubly constrained model is re-balanced starting  */
+    /* from the current Ai and Bj.                                                             */
+    /*******************************************************************************************/
+    
+    /**
+     * @return a copy of this solved model with its own copy of the weights for a scenario
+     */
+    DoubleModel createScenario(){
+        DoubleModel scenario = new DoubleModel(new Random());
+        scenario.beta = Arrays.copyOf(beta, beta.length);
+        //the arrays are replaced rather than written into so they can be shared
+        scenario.ai = ai;
+        scenario.bj = bj;
+        scenario.results = results;
+        scenario.deterrence = deterrence;
+        scenario.rowBeta = rowBeta;
+        scenario.distance = distance;
+        scenario.entropy = entropy;
+        scenario.solved = solved;
+        scenario.observedDistance = observedDistance;
+        scenario.originWeights = getOriginWeights().clone();
+        scenario.destinationWeights = getDestinationWeights().clone();
+        //the copies hold the weights the deterrence was filled from
+        if ( deterrenceFrom != null && deterrenceFrom[0] == getOriginWeights() && deterrenceFrom[1] == getDestinationWeights() ){
+            scenario.deterrenceFrom = new Object[]{scenario.originWeights, scenario.destinationWeights};
+        }
+        return scenario;
+    }
+    
+    /**
+     * Change the weights of a scenario and re-solve the model.  The doubly constrained
+     * model needs the origin and destination totals to match so the destination 
+     * weights are scaled to the origin total if they do not.
+     * 
+     * @param origin the new origin weights
+     * @param destination the new destination weights
+     * @return true if the model was solved, if not the model should be discarded
+     */
+    boolean updateWeights(double[] origin, double[] destination){
+        double[] oldOrigin = getOriginWeights();
+        double[] oldDestination = getDestinationWeights();
+        
+        boolean[] rows = new boolean[origin.length];
+        boolean[] columns = new boolean[destination.length];
+        boolean changed = false;
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = origin[i] != oldOrigin[i];
+            changed |= rows[i];
+        }
+        for (int j = 0; j < columns.length; j++) {
+            columns[j] = destination[j] != oldDestination[j];
+            changed |= columns[j];
+        }
+        
+        originWeights = origin.clone();
+        destinationWeights = destination.clone();
+        if ( !changed ){return solved;}
+        
+        if ( data.getModelConstraint() == DOUBLY_CONSTRAINED ){
+            double originTotal = 0.0;
+            double destinationTotal = 0.0;
+            for (double o : origin) {originTotal += o;}
+            for (double d : destination) {destinationTotal += d;}
+            if ( destinationTotal > 0.0 && originTotal != destinationTotal ){
+                for (int j = 0; j < destinationWeights.length; j++) {
+                    destinationWeights[j] *= originTotal / destinationTotal;
+                }
+            }
+        }
+        
+        //a deterrence that depends on the weights changes in every row and column
+        if ( data.dependsOnWeights() ){
+            updateDeterrence();
+            Arrays.fill(rows, true);
+            Arrays.fill(columns, true);
+        }
+        
+        switch ( data.getModelConstraint() ){
+            case PRODUCTION_CONSTRAINED:
+                solved = updateProductionConstrained(rows, columns);
+                break;
+            case ATTRACTION_CONSTRAINED:
+                solved = updateAttractionConstrained(rows, columns);
+                break;
+            case UNCONSTRAINED:
+                ai = ai.clone();
+                results = new double[origin.length][destination.length];
+                solved = calculateSinglePass();
+                break;
+            case CAPACITY_CONSTRAINED:
+                //continue from the current Bj of the destinations at capacity
+                ai = ai.clone();
+                bj = bj.clone();
+                results = new double[origin.length][destination.length];
+                solved = calculateCapacityConstrained();
+                break;
+            default:
+                //continue balancing from the current factors
+                ai = ai.clone();
+                bj = bj.clone();
+                results = new double[origin.length][destination.length];
+                solved = calculateAiBj();
+        }
+        
+        if ( solved ){calculateStatistics();}
+        
+        return solved;
+    }
+    
+    //Ai depends on the destination weights so a changed destination reaches every 
+    //origin that can get to it, a changed origin only scales its own row
+    private boolean updateProductionConstrained(boolean[] rows, boolean[] columns){
+        double[] o = getFreeOriginWeights();
+        ai = ai.clone();
+        results = results.clone();
+        
+        for (int i = 0; i < rows.length; i++) {
+            boolean reached = false;
+            for (int j = 0; j < columns.length && !reached; j++) {
+                reached = columns[j] && deterrence[i][j] != 0.0;
+            }
+            if ( reached ){
+                calculateAi(i);
+                if ( o[i] > 0.0 && !(ai[i] > 0.0 && ai[i] < Double.POSITIVE_INFINITY) ){return false;}
+            }
+            if ( reached || rows[i] ){
+                results[i] = calculateRow(i);
+            }
+        }
+        return true;
+    }
+    
+    //Bj depends on the origin weights so a changed origin reaches every destination 
+    //it can get to, a changed destination only scales its own column
+    private boolean updateAttractionConstrained(boolean[] rows, boolean[] columns){
+        double[] d = getFreeDestinationWeights();
+        boolean[] reached = columns.clone();
+        for (int i = 0; i < rows.length; i++) {
+            if ( !rows[i] ){continue;}
+            for (int j = 0; j < reached.length; j++) {
+                reached[j] |= deterrence[i][j] != 0.0;
+            }
+        }
+        
+        bj = bj.clone();
+        for (int j = 0; j < reached.length; j++) {
+            if ( !reached[j] ){continue;}
+            calculateBj(j);
+            if ( d[j] > 0.0 && !(bj[j] > 0.0 && bj[j] < Double.POSITIVE_INFINITY) ){return false;}
+        }
+        
+        results = results.clone();
+        for (int i = 0; i < rows.length; i++) {
+            if ( rows[i] ){
+                results[i] = calculateRow(i);
+            }else{
+                double[] row = results[i].clone();
+                for (int j = 0; j < reached.length; j++) {
+                    //cells without deterrence, including any fixed cells, keep their flows
+                    if ( reached[j] && deterrence[i][j] != 0.0 ){
+                        row[j] = ai[i] * bj[j] * getFreeOriginWeights()[i] * d[j] * deterrence[i][j];
+                    }
+                }
+                results[i] = row;
+            }
+        }
+        return true;
+    }
+    
+    //the flows from one origin
+    private double[] calculateRow(int i){
+        double[] row = new double[getDestinationWeights().length];
+        double[] det = deterrence[i];
+        double[] d = getFreeDestinationWeights();
+        double o = ai[i] * getFreeOriginWeights()[i];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = o * bj[j] * d[j] * det[j];
+        }
+        if ( data.getFixedCells() != null ){data.getFixedCells().addTo(i, row);}
+        return row;
+    }
+    
     public double[] getAi(){
         return ai;
     }
@@ -320,6 +848,10 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
         return beta;
     }
     
+    public double[][] getResults(){
+        return results;
+    }
+    
     public double getDistance(){
         return distance;
     }
@@ -340,10 +872,28 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
 
     @Override
     public double getCurrentFittness() {
-        if (Math.abs(getDistance()-data.getObservedDistance()) < data.getObservedDistance())
-            return (1-(Math.abs(getDistance()-data.getObservedDistance()) / data.getObservedDistance())) * getEntropy();
+        SparseMatrix flows = data.getObservedFlows();
+        if ( flows != null && Double.isNaN(observedDistance) ){return getFlowFitness(flows);}
+        
+        double observed = Double.isNaN(observedDistance) ? data.getObservedDistance() : observedDistance;
+        if (Math.abs(getDistance()-observed) < observed)
+            return (1-(Math.abs(getDistance()-observed) / observed)) * getEntropy();
         else
-            return data.getObservedDistance() - Math.abs(getDistance()-data.getObservedDistance());
+            return observed - Math.abs(getDistance()-observed);
+    }
+
+    //the fitness of the statistic against the observed flows, the results are replaced 
+    //rather than written into so the last one is kept until they change
+    private double getFlowFitness(SparseMatrix flows){
+        double[][] res = results;
+        if ( res != flowFitnessResults ){
+            SparseGOF statistic = data.getFitStatistic();
+            double stat = statistic.test(flows.getColumns(), flows.getValues(), res);
+            //the fitness is maximised and must be positive to be stored as a best fit
+            flowFitness = statistic.getTest().calibrateToLessThan() ? 1.0 / (1.0 + Math.abs(stat)) : stat;
+            flowFitnessResults = res;
+        }
+        return flowFitness;
     }
 
     @Override
@@ -353,9 +903,14 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
 
     @Override
     public double suggestChange() {
-        if (firstChange){
-//            betaIndex = random.nextInt(beta.length);
-            betaIndex = 0;
+        if (adaptiveProposals){
+            betaIndex = nextCoordinate();
+            
+            originalBeta = beta[betaIndex];
+            
+            beta[betaIndex] = getStepSize().propose(betaIndex, beta[betaIndex], random);
+        }else if (firstChange){
+            betaIndex = nextCoordinate();
 
             originalBeta = beta[betaIndex];
 
@@ -368,13 +923,18 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
         originalFitness = getCurrentFittness();
         originalDistance = distance;
         originalEntropy = entropy;
-        originalResults = data.cloneResults();
         
-        ai_original = Arrays.copyOf(ai, ai.length);
-        bj_original = Arrays.copyOf(bj, bj.length);
+        //runModel replaces these arrays rather than writing into them
+        //so there is no need to copy them
+        originalResults = results;
+        ai_original = ai;
+        bj_original = bj;
+        originalDeterrence = deterrence;
+        originalRowBeta = rowBeta;
         
-        if (!runModel()){
-            rejectChange();
+        changeFailed = !runModel();
+        if (changeFailed){
+            restore();
             firstChange = true;
         }
         
@@ -382,6 +942,13 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
         
     }
 
+    //the betas are changed in turn so that every origin group is visited
+    private int nextCoordinate(){
+        int index = coordinate % beta.length;
+        coordinate = (index + 1) % beta.length;
+        return index;
+    }
+
     public double generateRandomBeta(){
         return -1 * (random.nextDouble() / (random.nextInt(1000) + 1));
     }
@@ -389,36 +956,251 @@ public class DoubleModel implements ISimulatedAnnealing{ //, Runnable{
     @Override
     public void makeChange() {
         firstChange=true;
+        if (adaptiveProposals){getStepSize().record(betaIndex, !changeFailed);}
     }
 
     @Override
     public void rejectChange() {
+        restore();
+        
+        firstChange = !firstChange;
+        if (adaptiveProposals){getStepSize().record(betaIndex, false);}
+        
+    }
+    
+    /*******************************************************************************************/
+    /* Put the model back to the state it was in before the last suggested change.             */
+    /*******************************************************************************************/
+    private void restore(){
         beta[betaIndex] = originalBeta;
         distance = originalDistance;
         entropy = originalEntropy;
-        data.setResults(originalResults);
+        results = originalResults;
         
         ai = ai_original;
         bj = bj_original;
+        deterrence = originalDeterrence;
+        rowBeta = originalRowBeta;
+    }
+    
+    private AdaptiveStepSize getStepSize(){
+        if (stepSize == null || stepSize.getParameterCount() != beta.length){
+            stepSize = new AdaptiveStepSize(beta.length, INITIAL_STEP_SIZE, true);
+            stepSize.setLimits(MINIMUM_STEP_SIZE, MAXIMUM_STEP_SIZE);
+            //the competing destinations delta starts at 0 and may be either sign
+            if ( data.getCompetingDestinations() != null ){stepSize.setMultiplicative(beta.length - 1, false);}
+        }
+        return stepSize;
+    }
+    
+    /**
+     * @param budget a time limit tested during balancing so a run can be abandoned 
+     * part way through when the calibration runs out of time, null for no limit
+     */
+    public void setBudget(OptimisationBudget budget){
+        this.budget = budget;
+    }
+    
+    /**
+     * @param warmStart true to start balancing from the Ai and Bj of the last successful
+     * run rather than from 1, which converges in fewer iterations when the parameters
+     * have only changed a little
+     */
+    public void setWarmStart(boolean warmStart){
+        this.warmStart = warmStart;
+    }
+    
+    /**
+     * @param adaptiveProposals true to suggest changes to beta with step sizes tuned 
+     * to the acceptance rate, false to use the original random jumps and 1% reductions.
+     * The original jumps are to betas between -1 and 0 so they are only used with the
+     * exponential deterrence, the other functions and the competing destinations 
+     * term, whose delta can be positive, always use the adaptive proposals.
+     */
+    public void setAdaptiveProposals(boolean adaptiveProposals){
+        this.adaptiveProposals = adaptiveProposals 
+                || !(data.getDeterrenceFunction() instanceof ExponentialDeterrence)
+                || data.getCompetingDestinations() != null;
+    }
+    
+    /**
+     * @return true if the changes to beta are suggested with the adaptive step sizes
+     */
+    public boolean isAdaptiveProposals(){
+        return adaptiveProposals;
+    }
+
+    @Override
+    public ISpeculativeSimulatedAnnealing createCandidate() {
+        DoubleModel candidate = new DoubleModel(new Random(random.nextLong()));
         
+        candidate.beta = Arrays.copyOf(beta, beta.length);
+        //the arrays are replaced rather than written into by runModel so they can be shared
+        candidate.ai = ai;
+        candidate.bj = bj;
+        candidate.results = results;
+        candidate.deterrence = deterrence;
+        candidate.rowBeta = rowBeta;
+        candidate.deterrenceFrom = deterrenceFrom;
+        candidate.distance = distance;
+        candidate.entropy = entropy;
+        
+        //the step sizes are only changed on this thread once the candidates have been evaluated
+        candidate.budget = budget;
+        candidate.adaptiveProposals = adaptiveProposals;
+        if (adaptiveProposals){candidate.stepSize = getStepSize();}
+        
+        //the next candidate is suggested as if this one was rejected, so each
+        //new change moves the next beta and the candidates of a batch are spread
+        //across the origin groups
+        candidate.firstChange = firstChange;
+        candidate.coordinate = coordinate;
+        if (adaptiveProposals || firstChange){betaIndex = nextCoordinate();}
+        candidate.betaIndex = betaIndex;
         firstChange = !firstChange;
         
+        return candidate;
+    }
+
+    @Override
+    public void acceptCandidate(ISpeculativeSimulatedAnnealing candidate) {
+        DoubleModel dm = (DoubleModel)candidate;
+        
+        beta = dm.beta;
+        betaIndex = dm.betaIndex;
+        ai = dm.ai;
+        bj = dm.bj;
+        results = dm.results;
+        deterrence = dm.deterrence;
+        rowBeta = dm.rowBeta;
+        deterrenceFrom = dm.deterrenceFrom;
+        distance = dm.distance;
+        entropy = dm.entropy;
+        coordinate = dm.coordinate;
+        changeFailed = dm.changeFailed;
+        
+        makeChange();
+    }
+
+    @Override
+    public void rejectCandidate(ISpeculativeSimulatedAnnealing candidate) {
+        if (adaptiveProposals){getStepSize().record(((DoubleModel)candidate).betaIndex, false);}
+    }
+
+    @Override
+    public int getDimension() {
+        return beta.length;
+    }
+
+    @Override
+    public double[] getParameters() {
+        return Arrays.copyOf(beta, beta.length);
+    }
+
+    @Override
+    public double[] getInitialSteps() {
+        //the same relative size as the first adaptive proposals
+        double[] steps = new double[beta.length];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = beta[i] == 0.0 ? changeValue : Math.abs(beta[i]) * INITIAL_STEP_SIZE;
+        }
+        return steps;
+    }
+
+    @Override
+    public double evaluate(double[] parameters) {
+        //run a separate model so this can be called from several threads
+        DoubleModel model = new DoubleModel(new Random());
+        model.budget = budget;
+        //the rows are replaced rather than written into so they can be shared
+        model.deterrence = deterrence;
+        model.rowBeta = rowBeta;
+        model.deterrenceFrom = deterrenceFrom;
+        model.originWeights = originWeights;
+        model.destinationWeights = destinationWeights;
+        model.observedDistance = observedDistance;
+        if ( !model.runModel(Arrays.copyOf(parameters, parameters.length)) ){
+            return Double.NaN;
+        }
+        return model.getCurrentFittness();
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        runModel(Arrays.copyOf(parameters, parameters.length));
+        data.setResults(results);
+        data.storeBestFitResult(results, entropy, distance, getCurrentFittness(), beta);
+        printFittness(false);
+    }
+
+    @Override
+    public void writeCheckpoint(ObjectOutputStream out) throws IOException {
+        out.writeObject(beta);
+        out.writeInt(betaIndex);
+        out.writeInt(coordinate);
+        out.writeBoolean(firstChange);
+        out.writeBoolean(adaptiveProposals);
+        out.writeObject(stepSize);
+        out.writeObject(random);
+        
+        //the flows can be recalculated from the balancing factors so are not saved
+        out.writeObject(ai);
+        out.writeObject(bj);
+        out.writeDouble(distance);
+        out.writeDouble(entropy);
+        
+        //the best fit can be recalculated from its parameters
+        out.writeObject(data.getBestFitParameters());
+        out.writeDouble(data.getBestFitStat());
+    }
+
+    @Override
+    public void readCheckpoint(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        beta = (double[])in.readObject();
+        betaIndex = in.readInt();
+        coordinate = in.readInt();
+        firstChange = in.readBoolean();
+        adaptiveProposals = in.readBoolean();
+        stepSize = (AdaptiveStepSize)in.readObject();
+        random = (Random)in.readObject();
+        
+        ai = (double[])in.readObject();
+        bj = (double[])in.readObject();
+        distance = in.readDouble();
+        entropy = in.readDouble();
+        
+        results = new double[getOriginWeights().length][getDestinationWeights().length];
+        updateDeterrence();
+        calculate();
+        //the checkpointed Ai and Bj were balanced so the next run can warm start from them
+        solved = true;
+        data.setResults(results);
+        data.storeFinalRunResult(results, entropy, distance, beta);
+        
+        double[] bestParameters = (double[])in.readObject();
+        double bestStat = in.readDouble();
+        if (bestParameters.length > 0){
+            DoubleModel best = new DoubleModel(new Random());
+            best.runModel(Arrays.copyOf(bestParameters, bestParameters.length));
+            data.storeBestFitResult(best.results, best.entropy, best.distance, bestStat, bestParameters);
+        }
     }
 
     @Override
     public String getMessage() {
-        return "Calibrating doubly constrained model";
+        return "Calibrating " + MODEL_NAMES[data.getModelConstraint()] + " model";
     }
 
     @Override
     public void printFittness(boolean minorIteration) {
+        data.setResults(results);
         if (minorIteration){
             //System.out.println(entropy);
-            SpatialInteractionModel.getCurrent().report("minor - Entropy = " + entropy + " Distance = " + distance + " Fitness = " + getCurrentFittness());
-            data.storeBestFitResult(data.getResults(), entropy, distance, getCurrentFittness());
+            SpatialInteractionModel.log("minor - Entropy = " + entropy + " Distance = " + distance + " Fitness = " + getCurrentFittness());
+            data.storeBestFitResult(results, entropy, distance, getCurrentFittness(), beta);
         }else{
-            SpatialInteractionModel.getCurrent().report("MAJOR - Entropy = " + entropy + " Distance = " + distance + " Fitness = " + getCurrentFittness());
-            data.storeFinalRunResult(data.getResults(), entropy, distance);
+            SpatialInteractionModel.log("MAJOR - Entropy = " + entropy + " Distance = " + distance + " Fitness = " + getCurrentFittness());
+            data.storeFinalRunResult(results, entropy, distance, beta);
         }
     }
 
@@ -22,7 +22,9 @@
 package simodel;
 
 import java.util.Random;
-import uk.ac.leeds.mass.optimisation.simulatedannealing.SimulatedAnnealingProcess;
+import uk.ac.leeds.mass.fmf.generic_algorithms.ISimulatedAnnealing;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimisationBudget;
+import uk.ac.leeds.mass.fmf.generic_algorithms.SimulatedAnnealingProcess;
 
 
 public class DoubleModelCalibrate extends SimulatedAnnealingProcess{
@@ -32,11 +34,45 @@ public class DoubleModelCalibrate extends SimulatedAnnealingProcess{
     
     public DoubleModelCalibrate(double maximumDistance, int steps, int attempts, int success, int factor, Random random){
         //set up the values for the variables from the sliders
-        super(steps, attempts, success, factor, random);
+        super(steps, attempts, success, factor);
+        setRandomSeed(random.nextLong());
         this.maximumDistance = maximumDistance;
         DataHandler.getDataHandler().setObservedDistance(maximumDistance);
     }
     
+    @Override
+    public void setSa(ISimulatedAnnealing sa) {
+        super.setSa(sa);
+        passBudget();
+    }
+    
+    @Override
+    public void setBudget(OptimisationBudget budget) {
+        super.setBudget(budget);
+        passBudget();
+    }
+    
+    //the model tests the budget while balancing so long runs can be stopped
+    private void passBudget(){
+        if (getSa() instanceof DoubleModel){
+            ((DoubleModel)getSa()).setBudget(getBudget());
+        }
+    }
+    
+    @Override
+    protected void report(String message) {
+        SpatialInteractionModel.log(message);
+    }
+    
+    @Override
+    public void optimise() {
+        super.optimise();
+        if (isBudgetExpired()){
+            SpatialInteractionModel.log("Calibration stopped after " + getBudget().getEvaluations() 
+                    + " evaluations, keeping the best fit found so far");
+        }
+    }
+    
     
 }
 
@@ -0,0 +1,113 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * Origin destination flows that are known, for example from a survey, and kept 
+ * as they are while the model distributes the rest of the trips.  The cells are 
+ * held sparsely so the cost of using them is proportional to the number of cells.  The model 
+ * gives the fixed cells no deterrence and balances to the weights less the fixed
+ * flows.  The DataHandler refuses fixed flows more than a trip over a zone's 
+ * weight, the free weight is taken as 0 when they are over by less.
+ */
+public class FixedCells {
+    
+    //the destinations and flows of the fixed cells of each origin, in destination order
+    private final int[][] columns;
+    private final double[][] flows;
+    private final double[] rowTotals;
+    private final double[] columnTotals;
+    private final int count;
+    
+    /**
+     * @param cells the known flows, repeated cells are added together
+     */
+    public FixedCells(SparseMatrix cells){
+        columns = cells.getColumns();
+        flows = cells.getValues();
+        rowTotals = cells.getRowTotals();
+        columnTotals = cells.getColumnTotals();
+        count = cells.getCount();
+    }
+    
+    /**
+     * @return the number of fixed cells
+     */
+    public int getCount(){
+        return count;
+    }
+    
+    /**
+     * @param weights the origin weights
+     * @return the origin weights less the fixed flows from each origin
+     */
+    public double[] subtractRows(double[] weights){
+        return subtract(weights, rowTotals);
+    }
+    
+    /**
+     * @param weights the destination weights
+     * @return the destination weights less the fixed flows into each destination
+     */
+    public double[] subtractColumns(double[] weights){
+        return subtract(weights, columnTotals);
+    }
+    
+    private static double[] subtract(double[] weights, double[] totals){
+        double[] free = new double[weights.length];
+        for (int k = 0; k < free.length; k++) {
+            free[k] = Math.max(0.0, weights[k] - totals[k]);
+        }
+        return free;
+    }
+    
+    /**
+     * @param destination a valid destination index
+     * @return the total of the fixed flows into the destination
+     */
+    public double getColumnTotal(int destination){
+        return columnTotals[destination];
+    }
+    
+    /**
+     * Set the fixed cells of an origin's row to 0
+     * 
+     * @param origin the origin of the row
+     * @param row the row of deterrence values
+     */
+    public void clear(int origin, double[] row){
+        for (int j : columns[origin]) {row[j] = 0.0;}
+    }
+    
+    /**
+     * Add the fixed flows of an origin to its row of flows
+     * 
+     * @param origin the origin of the row
+     * @param row the row of flows
+     */
+    public void addTo(int origin, double[] row){
+        int[] c = columns[origin];
+        double[] f = flows[origin];
+        for (int k = 0; k < c.length; k++) {row[c[k]] += f[k];}
+    }
+    
+}
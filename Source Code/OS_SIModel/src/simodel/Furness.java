@@ -0,0 +1,454 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+
+package simodel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterative proportional fitting (the Furness method) of a seed matrix to new row
+ * and column totals, for example to update last year's observed flows to this 
+ * year's origin and destination totals.  The fitted matrix is a_i b_j s_ij where
+ * the row factors a and column factors b are found by alternately scaling the rows
+ * and the columns to their totals, which is the balancing of the doubly 
+ * constrained model with an arbitrary seed in place of the deterrence.
+ * 
+ * The seed is either dense or held sparsely as the columns and values of each 
+ * row's non-zero cells, so the cost of a sweep is proportional to the number of 
+ * cells.  The row sweep is split into chunks of rows and the column sweep sums 
+ * each chunk's column totals separately, so both run in parallel.  The fit stops
+ * when the largest difference between a total and its target is within the 
+ * tolerance, as a proportion of the total of the targets.  The fit ends on a row 
+ * sweep so the row totals are exact and the column totals within the tolerance.
+ * 
+ * Bands of cost can be added with a target total flow in each band, for example 
+ * an observed trip length distribution.  The fit is then tri-proportional with a
+ * third factor for each band, a_i b_j g_k(ij) s_ij, and the column and band 
+ * totals are measured when they are scaled in each iteration.
+ */
+public class Furness {
+    
+    private final int rows;
+    private final int columns;
+    //the columns and values of each row, the columns are null for a dense row
+    private final int[][] index;
+    private final double[][] seed;
+    
+    private int threads = 1;
+    private double tolerance = 1.0E-8;
+    private int maximumIterations = 1000;
+    private int report = 0;
+    
+    //the band of each seed cell and the target of each band, null without bands
+    private int[][] band = null;
+    private double[] bandTargets = null;
+    
+    private double[] a;
+    private double[] b;
+    private double[] bandFactors;
+    private int iterations = 0;
+    private double error = Double.POSITIVE_INFINITY;
+    
+    /**
+     * @param seed a dense seed matrix, this is not changed
+     */
+    public Furness(double[][] seed){
+        this.rows = seed.length;
+        this.columns = rows == 0 ? 0 : seed[0].length;
+        this.index = new int[rows][];
+        this.seed = seed;
+    }
+    
+    /**
+     * @param seed a sparse seed matrix, this is not changed
+     */
+    public Furness(SparseMatrix seed){
+        this.rows = seed.getRowCount();
+        this.columns = seed.getColumnCount();
+        this.index = seed.getColumns();
+        this.seed = seed.getValues();
+    }
+    
+    /**
+     * @param threads the number of threads the sweeps are split over
+     */
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * @param tolerance the largest difference between a total and its target
+     * as a proportion of the total of the targets
+     */
+    public void setTolerance(double tolerance){
+        this.tolerance = tolerance;
+    }
+    
+    /**
+     * @param maximumIterations the most pairs of row and column sweeps
+     */
+    public void setMaximumIterations(int maximumIterations){
+        this.maximumIterations = maximumIterations;
+    }
+    
+    /**
+     * @param every log the error every this many iterations, 0 for no reports
+     */
+    public void setReport(int every){
+        this.report = Math.max(0, every);
+    }
+    
+    /**
+     * Add a third set of factors, one for each cost band, so the fit also matches
+     * an observed trip length distribution.  The band of every seed cell is found
+     * once here so each sweep stays proportional to the number of cells.  Cells 
+     * with a cost of -1, which are not connected, are left out of the fit.
+     * 
+     * @param cost the cost of every origin destination pair
+     * @param upperCost the upper cost of each band in increasing order, costs 
+     * beyond the last band are in the last band
+     * @param bandTargets the total flow in each band
+     */
+    public void setBands(double[][] cost, double[] upperCost, double[] bandTargets){
+        if ( upperCost.length != bandTargets.length || upperCost.length == 0 ){
+            throw new IllegalArgumentException("Each cost band needs one target");
+        }
+        int last = upperCost.length - 1;
+        band = new int[rows][];
+        for (int i = 0; i < rows; i++) {
+            int[] c = index[i];
+            int[] bi = new int[seed[i].length];
+            for (int k = 0; k < bi.length; k++) {
+                double d = cost[i][c == null ? k : c[k]];
+                if ( d == -1.0 ){
+                    //the extra band with a factor of 0
+                    bi[k] = upperCost.length;
+                }else{
+                    int found = Arrays.binarySearch(upperCost, d);
+                    //an exact match is in that band, otherwise the insertion point is
+                    bi[k] = found < 0 ? Math.min(-found - 1, last) : found;
+                }
+            }
+            band[i] = bi;
+        }
+        this.bandTargets = bandTargets.clone();
+    }
+    
+    /**
+     * Fit the seed to the row and column totals, and the band totals if there are
+     * bands.  If the totals of the targets differ the column and band targets are
+     * scaled to the total of the row targets.  A row, column or band with a 
+     * target but no seed cells cannot be fitted.
+     * 
+     * @param rowTargets the total of each row
+     * @param columnTargets the total of each column
+     * @return true if the fit converged within the maximum iterations
+     */
+    public boolean fit(double[] rowTargets, double[] columnTargets){
+        double rowTotal = 0.0;
+        for (double r : rowTargets) {rowTotal += r;}
+        
+        final double[] r = rowTargets;
+        final double[] c = scale(columnTargets, rowTotal, "column");
+        final double[] t = band == null ? null : scale(bandTargets, rowTotal, "band");
+        final int bands = t == null ? 0 : t.length;
+        
+        final double[] rowFactors = new double[rows];
+        final double[] columnFactors = new double[columns];
+        Arrays.fill(columnFactors, 1.0);
+        //the extra band of the cells that are not connected stays at 0
+        final double[] factors = new double[bands + 1];
+        Arrays.fill(factors, 0, bands, 1.0);
+        bandFactors = factors;
+        final double threshold = tolerance * rowTotal;
+        
+        int chunks = Math.max(1, Math.min(threads, rows));
+        final double[] chunkError = new double[chunks];
+        final double[][] chunkColumns = new double[chunks][columns];
+        final double[][] chunkBands = new double[chunks][bands + 1];
+        List<Callable<Void>> rowSweep = new ArrayList<Callable<Void>>();
+        List<Callable<Void>> columnSweep = new ArrayList<Callable<Void>>();
+        List<Callable<Void>> bandSweep = new ArrayList<Callable<Void>>();
+        for (int n = 0; n < chunks; n++) {
+            final int chunk = n;
+            final int first = (int)((long)rows * n / chunks);
+            final int last = (int)((long)rows * (n + 1) / chunks);
+            rowSweep.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    //the row totals before scaling give the error of the last iteration
+                    double largest = 0.0;
+                    for (int i = first; i < last; i++) {
+                        double sum = rowSum(i, columnFactors);
+                        largest = Math.max(largest, Math.abs(rowFactors[i] * sum - r[i]));
+                        rowFactors[i] = sum > 0.0 ? r[i] / sum : 0.0;
+                    }
+                    chunkError[chunk] = largest;
+                    return null;
+                }
+            });
+            columnSweep.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    double[] sum = chunkColumns[chunk];
+                    Arrays.fill(sum, 0.0);
+                    for (int i = first; i < last; i++) {addRow(i, rowFactors[i], sum);}
+                    return null;
+                }
+            });
+            bandSweep.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    double[] sum = chunkBands[chunk];
+                    Arrays.fill(sum, 0.0);
+                    for (int i = first; i < last; i++) {addBands(i, rowFactors[i], columnFactors, sum);}
+                    return null;
+                }
+            });
+        }
+        
+        ExecutorService executor = chunks > 1 ? Executors.newFixedThreadPool(chunks) : null;
+        try{
+            iterations = 0;
+            error = Double.POSITIVE_INFINITY;
+            double columnError = Double.POSITIVE_INFINITY;
+            double bandError = 0.0;
+            boolean convergence = false;
+            while ( true ){
+                run(executor, rowSweep);
+                //the first sweep has no previous row totals to measure
+                if ( iterations > 0 ){
+                    error = Math.max(columnError, bandError);
+                    for (double e : chunkError) {error = Math.max(error, e);}
+                    if ( report > 0 && iterations % report == 0 ){
+                        SpatialInteractionModel.log("Furness iteration " + iterations + " error " + Double.toString(error));
+                    }
+                    if ( error <= threshold ){
+                        convergence = true;
+                        break;
+                    }
+                }
+                if ( iterations >= maximumIterations ){break;}
+                
+                run(executor, columnSweep);
+                columnError = 0.0;
+                for (int j = 0; j < columns; j++) {
+                    double sum = 0.0;
+                    for (double[] s : chunkColumns) {sum += s[j];}
+                    columnError = Math.max(columnError, Math.abs(columnFactors[j] * sum - c[j]));
+                    columnFactors[j] = sum > 0.0 ? c[j] / sum : 0.0;
+                }
+                
+                if ( bands > 0 ){
+                    run(executor, bandSweep);
+                    bandError = 0.0;
+                    for (int k = 0; k < bands; k++) {
+                        double sum = 0.0;
+                        for (double[] s : chunkBands) {sum += s[k];}
+                        bandError = Math.max(bandError, Math.abs(factors[k] * sum - t[k]));
+                        factors[k] = sum > 0.0 ? t[k] / sum : 0.0;
+                    }
+                }
+                iterations++;
+            }
+            
+            a = rowFactors;
+            b = columnFactors;
+            if ( report > 0 ){
+                SpatialInteractionModel.log("Furness " + (convergence ? "converged" : "stopped") 
+                        + " after " + iterations + " iterations with error " + Double.toString(error));
+            }
+            return convergence;
+        }finally{
+            if ( executor != null ){executor.shutdown();}
+        }
+    }
+    
+    //scale targets to the row total if their total differs
+    private double[] scale(double[] targets, double rowTotal, String name){
+        double total = 0.0;
+        for (double x : targets) {total += x;}
+        if ( Math.abs(rowTotal - total) <= tolerance * rowTotal ){return targets;}
+        
+        SpatialInteractionModel.log("Furness row total " + Double.toString(rowTotal) 
+                + " and " + name + " total " + Double.toString(total) + " differ, scaling the " + name + "s");
+        double[] scaled = targets.clone();
+        for (int k = 0; k < scaled.length; k++) {scaled[k] *= rowTotal / total;}
+        return scaled;
+    }
+    
+    //a seed value multiplied by the factor of its band if there are bands
+    private double value(int i, int k){
+        return band == null ? seed[i][k] : seed[i][k] * bandFactors[band[i][k]];
+    }
+    
+    //the sum of a row's seed values weighted by the column factors
+    private double rowSum(int i, double[] weights){
+        int[] c = index[i];
+        double sum = 0.0;
+        for (int k = 0; k < seed[i].length; k++) {
+            sum += value(i, k) * weights[c == null ? k : c[k]];
+        }
+        return sum;
+    }
+    
+    //add a row's seed values multiplied by its factor to the column sums
+    private void addRow(int i, double factor, double[] sum){
+        if ( factor == 0.0 ){return;}
+        int[] c = index[i];
+        for (int k = 0; k < seed[i].length; k++) {
+            sum[c == null ? k : c[k]] += factor * value(i, k);
+        }
+    }
+    
+    //add a row's flows without the band factors to the band sums
+    private void addBands(int i, double factor, double[] weights, double[] sum){
+        if ( factor == 0.0 ){return;}
+        int[] c = index[i];
+        int[] bi = band[i];
+        double[] v = seed[i];
+        for (int k = 0; k < v.length; k++) {
+            sum[bi[k]] += factor * weights[c == null ? k : c[k]] * v[k];
+        }
+    }
+    
+    private static void run(ExecutorService executor, List<Callable<Void>> tasks){
+        if ( executor == null ){
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            return;
+        }
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {f.get();}
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+    
+    /**
+     * @return the factor of each row from the last fit
+     */
+    public double[] getRowFactors(){
+        return a;
+    }
+    
+    /**
+     * @return the factor of each column from the last fit
+     */
+    public double[] getColumnFactors(){
+        return b;
+    }
+    
+    /**
+     * @return the factor of each band from the last fit, with a last extra band
+     * of 0 for the cells that are not connected, or null without bands
+     */
+    public double[] getBandFactors(){
+        return band == null ? null : bandFactors;
+    }
+    
+    /**
+     * @return the total of the fitted flows in each band or null without bands
+     */
+    public double[] getBandTotals(){
+        if ( band == null ){return null;}
+        double[] sum = new double[bandTargets.length + 1];
+        for (int i = 0; i < rows; i++) {
+            int[] c = index[i];
+            for (int k = 0; k < seed[i].length; k++) {
+                sum[band[i][k]] += a[i] * b[c == null ? k : c[k]] * value(i, k);
+            }
+        }
+        return Arrays.copyOf(sum, bandTargets.length);
+    }
+    
+    /**
+     * @return the number of iterations of the last fit
+     */
+    public int getIterations(){
+        return iterations;
+    }
+    
+    /**
+     * @return the largest difference between a total and its target in the last
+     * iteration of the last fit
+     */
+    public double getError(){
+        return error;
+    }
+    
+    /**
+     * @return the fitted matrix as a dense matrix
+     */
+    public double[][] getMatrix(){
+        double[][] m = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            int[] c = index[i];
+            double[] v = seed[i];
+            for (int k = 0; k < v.length; k++) {
+                int j = c == null ? k : c[k];
+                m[i][j] = a[i] * b[j] * value(i, k);
+            }
+        }
+        return m;
+    }
+    
+    /**
+     * Save the non-zero cells of the fitted matrix as origin, destination and flow
+     * rows, the same form as the seed file.
+     * 
+     * @param file the file to save to
+     * @return true if the file was saved
+     */
+    public boolean save(File file){
+        DataHandler data = DataHandler.getDataHandler();
+        List<String[]> table = new ArrayList<String[]>();
+        table.add(new String[]{"Origin", "Destination", "Flow"});
+        for (int i = 0; i < rows; i++) {
+            int[] c = index[i];
+            double[] v = seed[i];
+            for (int k = 0; k < v.length; k++) {
+                int j = c == null ? k : c[k];
+                double flow = a[i] * b[j] * value(i, k);
+                if ( flow == 0.0 ){continue;}
+                table.add(new String[]{data.getOriginID(i), data.getDestinationID(j), Double.toString(flow)});
+            }
+        }
+        return data.saveData(file, table.toArray(new String[table.size()][]));
+    }
+    
+}
@@ -0,0 +1,235 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several modes of travel with costs made up of weighted component skims, for 
+ * example time, distance and toll matrices.  The generalised cost of a mode is 
+ * the weighted sum of its skims and is only formed a row at a time while the 
+ * deterrence is calculated so no combined matrix is stored.  The deterrence of 
+ * an origin destination pair is the sum of the deterrence of each mode, so the 
+ * balancing solves the distribution and mode split together and each mode takes
+ * its share of the flow in proportion to its deterrence.
+ */
+public class GeneralisedCost {
+    
+    private final List<String> skimNames = new ArrayList<String>();
+    private final List<double[][]> skims = new ArrayList<double[][]>();
+    
+    private final List<String> modeNames = new ArrayList<String>();
+    //the weight of each skim in the cost of each mode
+    private final List<double[]> modeWeights = new ArrayList<double[]>();
+    
+    /**
+     * @param name the name the modes refer to the skim by
+     * @param costs the skim in the order of the loaded origins and destinations, 
+     * -1 where there is no connection
+     */
+    public void addSkim(String name, double[][] costs){
+        skimNames.add(name);
+        skims.add(costs);
+        for (int m = 0; m < modeWeights.size(); m++) {
+            double[] weights = modeWeights.get(m);
+            double[] longer = new double[skims.size()];
+            System.arraycopy(weights, 0, longer, 0, weights.length);
+            modeWeights.set(m, longer);
+        }
+    }
+    
+    /**
+     * Add a skim to the cost of a mode, the mode is created if it does not exist
+     * 
+     * @param mode the name of the mode
+     * @param skim the name of a skim already added
+     * @param weight the weight of the skim in the generalised cost of the mode
+     * @return false if the skim has not been added
+     */
+    public boolean addComponent(String mode, String skim, double weight){
+        int k = skimNames.indexOf(skim);
+        if ( k < 0 ){return false;}
+        int m = modeNames.indexOf(mode);
+        if ( m < 0 ){
+            modeNames.add(mode);
+            modeWeights.add(new double[skims.size()]);
+            m = modeNames.size() - 1;
+        }
+        modeWeights.get(m)[k] += weight;
+        return true;
+    }
+    
+    /**
+     * Load the modes from a file of mode, skim name and weight rows
+     * 
+     * @param filePath the modes file
+     * @return true if every row refers to a loaded skim
+     */
+    public boolean loadModes(String filePath){
+        String[][] rows = DataHandler.getDataHandler().loadFile(filePath);
+        if ( rows == null ){return false;}
+        for (String[] row : rows) {
+            double weight;
+            try{
+                weight = Double.parseDouble(row[2]);
+            }catch(NumberFormatException e){
+                //skip the header
+                continue;
+            }
+            if ( !addComponent(row[0], row[1], weight) ){
+                SpatialInteractionModel.log("Unknown skim " + row[1] + " for mode " + row[0]);
+                return false;
+            }
+        }
+        return !modeNames.isEmpty();
+    }
+    
+    /**
+     * @return the number of modes
+     */
+    public int getModeCount(){
+        return modeNames.size();
+    }
+    
+    /**
+     * @param mode a valid mode index
+     * @return the name of the mode
+     */
+    public String getModeName(int mode){
+        return modeNames.get(mode);
+    }
+    
+    /**
+     * Fill a row of deterrence values summed over the modes
+     * 
+     * @param origin the origin of the row
+     * @param function the deterrence function applied to the cost of each mode
+     * @param parameters the parameters of all of the origin groups
+     * @param offset the index in parameters of the first parameter for this origin
+     * @param row the array to fill
+     */
+    public void fill(int origin, IDeterrenceFunction function, double[] parameters, int offset, double[] row){
+        double[] cost = new double[row.length];
+        double[] mode = new double[row.length];
+        Arrays.fill(row, 0.0);
+        for (int m = 0; m < modeNames.size(); m++) {
+            fillMode(origin, m, function, parameters, offset, cost, mode);
+            for (int j = 0; j < row.length; j++) {row[j] += mode[j];}
+        }
+    }
+    
+    //the deterrence of one mode from an origin, cost is a buffer for the generalised cost
+    private void fillMode(int origin, int m, IDeterrenceFunction function, double[] parameters, int offset, double[] cost, double[] row){
+        double[] weights = modeWeights.get(m);
+        Arrays.fill(cost, 0.0);
+        for (int k = 0; k < weights.length; k++) {
+            if ( weights[k] == 0.0 ){continue;}
+            double[] skim = skims.get(k)[origin];
+            double w = weights[k];
+            for (int j = 0; j < cost.length; j++) {
+                //a pair missing from any skim the mode uses is not connected by the mode
+                if ( cost[j] < 0.0 || skim[j] < 0.0 ){
+                    cost[j] = -1.0;
+                }else{
+                    cost[j] += w * skim[j];
+                }
+            }
+        }
+        function.fill(cost, parameters, offset, row);
+    }
+    
+    /**
+     * Split flows between the modes in proportion to the deterrence of each mode
+     * 
+     * @param flows the flows of a model solved with this generalised cost
+     * @param parameters the parameters the model was solved with
+     * @return the flows of each mode
+     */
+    public double[][][] split(double[][] flows, double[] parameters){
+        DataHandler data = DataHandler.getDataHandler();
+        IDeterrenceFunction function = (IDeterrenceFunction)data.getDeterrenceFunction();
+        int destinations = flows[0].length;
+        
+        double[][][] split = new double[modeNames.size()][flows.length][destinations];
+        double[] cost = new double[destinations];
+        double[] total = new double[destinations];
+        
+        for (int i = 0; i < flows.length; i++) {
+            int offset = data.getParameterOffset(i);
+            Arrays.fill(total, 0.0);
+            for (int m = 0; m < split.length; m++) {
+                fillMode(i, m, function, parameters, offset, cost, split[m][i]);
+                for (int j = 0; j < destinations; j++) {total[j] += split[m][i][j];}
+            }
+            for (int m = 0; m < split.length; m++) {
+                double[] row = split[m][i];
+                for (int j = 0; j < destinations; j++) {
+                    row[j] = total[j] > 0.0 ? flows[i][j] * row[j] / total[j] : 0.0;
+                }
+            }
+        }
+        return split;
+    }
+    
+    /**
+     * Save the trips and share of each mode to "Mode Split.csv" and the flows of 
+     * each mode as origin, destination, mode and flow rows to "Mode Flows.csv" in 
+     * the outputs folder.
+     * 
+     * @param flows the flows of a model solved with this generalised cost
+     * @param parameters the parameters the model was solved with
+     * @return true if the files were saved
+     */
+    public boolean save(double[][] flows, double[] parameters){
+        DataHandler data = DataHandler.getDataHandler();
+        double[][][] split = split(flows, parameters);
+        
+        double all = 0.0;
+        double[] trips = new double[split.length];
+        List<String[]> rows = new ArrayList<String[]>();
+        for (int m = 0; m < split.length; m++) {
+            for (int i = 0; i < flows.length; i++) {
+                for (int j = 0; j < flows[i].length; j++) {
+                    trips[m] += split[m][i][j];
+                    if ( split[m][i][j] > 0.0 ){
+                        rows.add(new String[]{data.getOriginID(i), data.getDestinationID(j), modeNames.get(m), Double.toString(split[m][i][j])});
+                    }
+                }
+            }
+            all += trips[m];
+        }
+        
+        String[][] summary = new String[split.length + 1][];
+        summary[0] = new String[]{"Mode", "Trips", "Share"};
+        for (int m = 0; m < split.length; m++) {
+            summary[m + 1] = new String[]{modeNames.get(m), Double.toString(trips[m]), Double.toString(all > 0.0 ? trips[m] / all : 0.0)};
+        }
+        
+        File modeSplit = data.getOutputFile("Mode Split.csv");
+        File modeFlows = data.getOutputFile("Mode Flows.csv");
+        return data.saveData(modeSplit, summary) && data.saveData(modeFlows, rows.toArray(new String[rows.size()][]));
+    }
+    
+}
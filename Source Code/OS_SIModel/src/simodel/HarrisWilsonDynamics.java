@@ -0,0 +1,220 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Harris and Wilson's model of how destination attractiveness changes with the 
+ * flows it attracts.  Each step the model is solved with the current attractiveness
+ * W raised to the power alpha as the destination weights, then each destination 
+ * grows or shrinks with the difference between its inflow D and its cost K W
+ * 
+ * W = W + rate (D - K W) W
+ * 
+ * until the largest change relative to the total attractiveness is below the 
+ * tolerance.  The steps are solved as a scenario of a solved model so the 
+ * deterrence is calculated once and each step continues from the balancing 
+ * factors of the step before.  The production constrained model is the usual 
+ * choice, the doubly constrained model fixes the inflows to the weights.
+ */
+public class HarrisWilsonDynamics {
+    
+    private final Scenario scenario;
+    
+    private double rate = 0.01;
+    private double cost = 0.0;
+    private double alpha = 1.0;
+    private double tolerance = 1e-6;
+    private int maximumSteps = 1000;
+    
+    private double[] attractiveness = null;
+    private int steps = 0;
+    private boolean converged = false;
+    
+    //step, change, distance and the attractiveness of each destination after every step
+    private final List<double[]> trajectory = new ArrayList<double[]>();
+    
+    /**
+     * @param solvedModel a model that has been run successfully, usually with the
+     * calibrated parameters.  Its destination weights are the starting attractiveness.
+     */
+    public HarrisWilsonDynamics(DoubleModel solvedModel){
+        scenario = new Scenario(solvedModel);
+    }
+    
+    /**
+     * @param rate how quickly the attractiveness responds to the difference 
+     * between inflow and cost
+     */
+    public void setRate(double rate){
+        this.rate = rate;
+    }
+    
+    /**
+     * @param cost the cost of a unit of attractiveness in units of flow, 0 uses the
+     * total flow over the total starting attractiveness so the totals match at 
+     * equilibrium
+     */
+    public void setCost(double cost){
+        this.cost = cost;
+    }
+    
+    /**
+     * @param alpha the power the attractiveness is raised to in the model
+     */
+    public void setAlpha(double alpha){
+        this.alpha = alpha;
+    }
+    
+    /**
+     * @param tolerance the largest change relative to the total attractiveness that 
+     * counts as equilibrium
+     */
+    public void setTolerance(double tolerance){
+        this.tolerance = tolerance;
+    }
+    
+    /**
+     * @param maximumSteps the number of steps to stop after if equilibrium is not reached
+     */
+    public void setMaximumSteps(int maximumSteps){
+        this.maximumSteps = maximumSteps;
+    }
+    
+    /**
+     * Run the dynamics from the weights of the solved model
+     * 
+     * @return true if the attractiveness reached equilibrium
+     */
+    public boolean run(){
+        scenario.reset();
+        attractiveness = scenario.getDestinationWeights();
+        trajectory.clear();
+        steps = 0;
+        converged = false;
+        
+        double k = cost;
+        if ( k <= 0.0 ){
+            double trips = 0.0;
+            double total = 0.0;
+            for (double o : scenario.getOriginWeights()) {trips += o;}
+            for (double w : attractiveness) {total += w;}
+            k = total > 0.0 ? trips / total : 1.0;
+        }
+        
+        double[] inflow = new double[attractiveness.length];
+        
+        while ( steps < maximumSteps && !converged ){
+            for (int j = 0; j < attractiveness.length; j++) {
+                scenario.setDestination(j, Math.pow(attractiveness[j], alpha));
+            }
+            if ( !scenario.solve() ){
+                SpatialInteractionModel.log("The model could not be solved at step " + steps);
+                return false;
+            }
+            
+            Arrays.fill(inflow, 0.0);
+            for (double[] row : scenario.getFlows()) {
+                for (int j = 0; j < row.length; j++) {inflow[j] += row[j];}
+            }
+            
+            double change = 0.0;
+            double total = 0.0;
+            for (int j = 0; j < attractiveness.length; j++) {
+                double w = attractiveness[j];
+                //a destination that loses all of its attractiveness closes
+                double next = Math.max(0.0, w + rate * (inflow[j] - k * w) * w);
+                change = Math.max(change, Math.abs(next - w));
+                total += next;
+                attractiveness[j] = next;
+            }
+            
+            //relative to the total so a closing destination does not hold up equilibrium
+            change = total > 0.0 ? change / total : 0.0;
+            steps++;
+            converged = change < tolerance;
+            
+            double[] point = new double[attractiveness.length + 3];
+            point[0] = steps;
+            point[1] = change;
+            point[2] = scenario.getDistance();
+            System.arraycopy(attractiveness, 0, point, 3, attractiveness.length);
+            trajectory.add(point);
+        }
+        
+        SpatialInteractionModel.log((converged ? "Equilibrium reached after " : "No equilibrium after ") + steps + " steps");
+        return converged;
+    }
+    
+    /**
+     * @return the attractiveness of each destination after the last step
+     */
+    public double[] getAttractiveness(){
+        return attractiveness.clone();
+    }
+    
+    /**
+     * @return the number of steps run
+     */
+    public int getSteps(){
+        return steps;
+    }
+    
+    /**
+     * @return true if the last run reached equilibrium
+     */
+    public boolean isConverged(){
+        return converged;
+    }
+    
+    /**
+     * Save the trajectory as a row for each step of the step, the largest change
+     * relative to the total attractiveness, the total distance of the flows and 
+     * the attractiveness of each destination.
+     * 
+     * @param file the file to save to
+     * @return true if the file was saved
+     */
+    public boolean save(File file){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] table = new String[trajectory.size() + 1][attractiveness.length + 3];
+        table[0][0] = "Step";
+        table[0][1] = "Change";
+        table[0][2] = "Distance";
+        for (int j = 0; j < attractiveness.length; j++) {
+            table[0][j + 3] = data.getDestinationID(j);
+        }
+        for (int s = 0; s < trajectory.size(); s++) {
+            double[] point = trajectory.get(s);
+            table[s + 1][0] = Integer.toString((int)point[0]);
+            for (int c = 1; c < point.length; c++) {
+                table[s + 1][c] = Double.toString(point[c]);
+            }
+        }
+        return data.saveData(file, table);
+    }
+    
+}
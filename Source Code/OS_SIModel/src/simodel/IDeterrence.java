@@ -0,0 +1,48 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * The parameters of a deterrence used by the spatial interaction models.  The
+ * deterrence of a row is filled either from the distances alone by an 
+ * IDeterrenceFunction or from the origin and the weights of the model being 
+ * solved by an IOpportunityDeterrence.  A deterrence with several parameters 
+ * makes the model calibrate that many parameters for each origin group.
+ */
+public interface IDeterrence {
+    
+    /**
+     * @return the number of parameters the deterrence takes
+     */
+    public int getParameterCount();
+    
+    /**
+     * @return the names of the parameters used in the outputs
+     */
+    public String[] getParameterNames();
+    
+    /**
+     * @return the parameters to start the calibration from
+     */
+    public double[] getInitialParameters();
+    
+}
@@ -0,0 +1,43 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * A distance deterrence function f(c) used by the spatial interaction models.
+ * The model asks for a whole row of deterrence values at a time so each 
+ * implementation fills the row with its own loop, there is no method call for
+ * each origin destination pair.
+ */
+public interface IDeterrenceFunction extends IDeterrence {
+    
+    /**
+     * Fill a row of deterrence values.  A distance of -1 means the origin and 
+     * destination are not connected and must give a deterrence of 0.
+     * 
+     * @param distances the distances from one origin to each destination
+     * @param parameters the parameters of all of the origin groups
+     * @param offset the index in parameters of the first parameter for this origin
+     * @param row the array to fill, the same length as distances
+     */
+    public void fill(double[] distances, double[] parameters, int offset, double[] row);
+    
+}
@@ -0,0 +1,44 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * A deterrence of the destination weight between an origin and each destination
+ * rather than of the distance alone.  These need to know the origin of the row so
+ * they cannot be applied to the costs of a generalised cost or to the distances of
+ * candidate sites.
+ */
+public interface IOpportunityDeterrence extends IDeterrence {
+    
+    /**
+     * Fill the row of deterrence values of an origin
+     * 
+     * @param originIndex the origin of the row
+     * @param origins the origin weights of the model being solved
+     * @param destinations the destination weights of the model being solved
+     * @param parameters the parameters of all of the origin groups
+     * @param offset the index in parameters of the first parameter for this origin
+     * @param row the array to fill, the deterrence of unconnected destinations is 0
+     */
+    public void fill(int originIndex, double[] origins, double[] destinations, double[] parameters, int offset, double[] row);
+    
+}
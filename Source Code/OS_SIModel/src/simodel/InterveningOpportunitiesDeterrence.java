@@ -0,0 +1,70 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * Stouffer's intervening opportunities model as a deterrence function.  A trip 
+ * passes each opportunity with probability exp(-L) so the chance of ending at a 
+ * destination with weight n with s of destination weight closer to the origin is
+ * 
+ * exp(-L s) - exp(-L (s + n))
+ * 
+ * The model multiplies by n so the function is divided by n.  L is calibrated for
+ * each origin group.
+ */
+public class InterveningOpportunitiesDeterrence implements IOpportunityDeterrence {
+
+    @Override
+    public int getParameterCount() {
+        return 1;
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        return new String[]{"L"};
+    }
+
+    @Override
+    public double[] getInitialParameters() {
+        //about one trip in e passes half of the opportunities
+        double total = 0.0;
+        for (double n : DataHandler.getDataHandler().getDestination()) {total += n;}
+        return new double[]{total > 0.0 ? 2.0 / total : 1.0};
+    }
+
+    @Override
+    public void fill(int originIndex, double[] origins, double[] destinations, double[] parameters, int offset, double[] row) {
+        DataHandler data = DataHandler.getDataHandler();
+        double[] n = destinations;
+        double[] s = data.getOpportunityIndex().getIntervening(originIndex, n);
+        double[] distances = data.getDistanceRow(originIndex);
+        double l = parameters[offset];
+        for (int j = 0; j < row.length; j++) {
+            if ( distances[j] < 0.0 || n[j] <= 0.0 ){
+                row[j] = 0.0;
+            }else{
+                row[j] = Math.exp(-l * s[j]) * -Math.expm1(-l * n[j]) / n[j];
+            }
+        }
+    }
+    
+}
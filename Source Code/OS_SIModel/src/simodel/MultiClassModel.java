@@ -0,0 +1,363 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.ac.leeds.mass.fmf.generic_algorithms.IOptimisable;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimisationBudget;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimisationProcess;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimiserFactory;
+
+/**
+ * Several classes of trips, for example trip purposes, over the same zones.  Each 
+ * class has its own origin and destination weights, observed distance, parameters 
+ * and balancing factors while the zones, distances, deterrence function and 
+ * origin groups loaded in the DataHandler are shared, so the distance matrix is 
+ * only loaded once.  The classes are solved and calibrated at the same time, each
+ * on its own thread.  The classes are calibrated with one of the derivative free 
+ * optimisers as simulated annealing reports its progress through the DataHandler.
+ * Each class is balanced by its own DoubleModel with its own deterrence matrix, 
+ * so the classes share the loaded distances but are not balanced together in one 
+ * pass over them.  The fixed cells and observed flows in the DataHandler are for 
+ * all the trips, so they should not be loaded when classes are used.
+ */
+public class MultiClassModel {
+    
+    private final List<String> names = new ArrayList<String>();
+    private final List<DoubleModel> models = new ArrayList<DoubleModel>();
+    private final List<double[]> parameters = new ArrayList<double[]>();
+    private final Random random;
+    
+    private int threads = 1;
+    private int optimiserType = OptimiserFactory.NELDER_MEAD;
+    private int maximumEvaluations = 1000;
+    private long timeLimit = OptimisationBudget.UNLIMITED;
+    
+    /**
+     * @param random the source of the optimisers' seeds
+     */
+    public MultiClassModel(Random random){
+        this.random = random;
+    }
+    
+    /**
+     * Add a class starting from the initial parameters of the deterrence function
+     * 
+     * @param name the name of the class used in the outputs
+     * @param origin the origin weights in the order of the loaded origins
+     * @param destination the destination weights in the order of the loaded destinations
+     * @param observedDistance the distance the class is calibrated to
+     */
+    public void addClass(String name, double[] origin, double[] destination, double observedDistance){
+        DoubleModel model = new DoubleModel(new Random(random.nextLong()));
+        model.setClass(origin.clone(), destination.clone(), observedDistance);
+        names.add(name);
+        models.add(model);
+        parameters.add(DataHandler.getDataHandler().getInitialParameters());
+    }
+    
+    /**
+     * Load the classes from a file of rows of the class name, its origins file, its
+     * destinations file and its observed distance.  The weights files have the same 
+     * form as the loaded origins and destinations, zones that are not listed have a
+     * weight of 0.
+     * 
+     * @param filePath the classes file
+     * @return true if every class was loaded
+     */
+    public boolean load(String filePath){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] classes = data.loadFile(filePath);
+        if ( classes == null ){return false;}
+        
+        for (String[] row : classes) {
+            double observed;
+            try{
+                observed = Double.parseDouble(row[3]);
+            }catch(NumberFormatException e){
+                //skip the header
+                continue;
+            }
+            double[] origin = loadWeights(row[1], true);
+            double[] destination = loadWeights(row[2], false);
+            if ( origin == null || destination == null ){
+                SpatialInteractionModel.log("Unable to load the weights of class " + row[0]);
+                return false;
+            }
+            addClass(row[0], origin, destination, observed);
+        }
+        
+        return !names.isEmpty();
+    }
+    
+    //read the weights of one class in the order of the loaded zones
+    private double[] loadWeights(String filePath, boolean origins){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] rows = data.loadFile(filePath);
+        if ( rows == null ){return null;}
+        
+        double[] weights = new double[origins ? data.getOrigin().length : data.getDestination().length];
+        for (String[] row : rows) {
+            int index = origins ? data.getOriginIndex(row[0]) : data.getDestinationIndex(row[0]);
+            if ( index < 0 ){continue;}
+            try{
+                weights[index] = Double.parseDouble(row[1]);
+            }catch(NumberFormatException e){
+                return null;
+            }
+        }
+        return weights;
+    }
+    
+    /**
+     * @param threads the number of threads shared between the classes
+     */
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * @param optimiserType the OptimiserFactory constant of the optimiser used to calibrate
+     */
+    public void setOptimiser(int optimiserType){
+        this.optimiserType = optimiserType;
+    }
+    
+    /**
+     * @param maximumEvaluations the most evaluations each class can make
+     */
+    public void setMaximumEvaluations(int maximumEvaluations){
+        this.maximumEvaluations = maximumEvaluations;
+    }
+    
+    /**
+     * @param timeLimit the time each class can take in milliseconds or OptimisationBudget.UNLIMITED
+     */
+    public void setTimeLimit(long timeLimit){
+        this.timeLimit = timeLimit;
+    }
+    
+    /**
+     * Solve every class with its current parameters
+     * 
+     * @return true if every class balanced
+     */
+    public boolean solve(){
+        boolean[] solved = runClasses(new ClassTask(){
+            @Override
+            public boolean run(int c) {
+                return models.get(c).runModel(parameters.get(c).clone());
+            }
+        });
+        return allTrue(solved);
+    }
+    
+    /**
+     * Calibrate every class, leaving each class solved with its best parameters
+     * 
+     * @return true if every class balanced with its best parameters
+     */
+    public boolean calibrate(){
+        if ( !solve() ){return false;}
+        
+        final int classThreads = Math.max(1, threads / names.size());
+        final long[] seeds = new long[names.size()];
+        for (int c = 0; c < seeds.length; c++) {seeds[c] = random.nextLong();}
+        
+        boolean[] solved = runClasses(new ClassTask(){
+            @Override
+            public boolean run(int c) {
+                ClassObjective objective = new ClassObjective(c);
+                OptimisationProcess process = new OptimiserFactory().createOptimiser(optimiserType);
+                process.setObjective(objective);
+                process.setRandomSeed(seeds[c]);
+                process.setThreads(classThreads);
+                process.setMaximumEvaluations(maximumEvaluations);
+                if ( timeLimit != OptimisationBudget.UNLIMITED ){
+                    process.setBudget(new OptimisationBudget(timeLimit, OptimisationBudget.UNLIMITED));
+                }
+                process.optimise();
+                SpatialInteractionModel.log("Class " + names.get(c) + " calibrated after " 
+                        + process.getEvaluations() + " evaluations, fitness " + models.get(c).getCurrentFittness());
+                return objective.solved;
+            }
+        });
+        return allTrue(solved);
+    }
+    
+    private static boolean allTrue(boolean[] values){
+        for (boolean v : values) {
+            if ( !v ){return false;}
+        }
+        return true;
+    }
+    
+    private interface ClassTask{
+        public boolean run(int classIndex);
+    }
+    
+    //run a task for each class on its own thread
+    private boolean[] runClasses(final ClassTask task){
+        final boolean[] result = new boolean[names.size()];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int c = 0; c < result.length; c++) {
+            final int classIndex = c;
+            tasks.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    result[classIndex] = task.run(classIndex);
+                    return null;
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, result.length)));
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {f.get();}
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return result;
+    }
+    
+    //calibrates one class without reporting the results to the DataHandler
+    private class ClassObjective implements IOptimisable{
+        
+        private final int classIndex;
+        private boolean solved = false;
+        
+        ClassObjective(int classIndex){
+            this.classIndex = classIndex;
+        }
+        
+        @Override
+        public int getDimension() {
+            return models.get(classIndex).getDimension();
+        }
+
+        @Override
+        public double[] getParameters() {
+            return models.get(classIndex).getParameters();
+        }
+
+        @Override
+        public double[] getInitialSteps() {
+            return models.get(classIndex).getInitialSteps();
+        }
+
+        @Override
+        public double evaluate(double[] parameters) {
+            return models.get(classIndex).evaluate(parameters);
+        }
+
+        @Override
+        public void setParameters(double[] p) {
+            parameters.set(classIndex, p.clone());
+            solved = models.get(classIndex).runModel(p.clone());
+        }
+
+        @Override
+        public String getMessage() {
+            return "Calibrating class " + names.get(classIndex);
+        }
+        
+    }
+    
+    /**
+     * @return the number of classes
+     */
+    public int getClassCount(){
+        return names.size();
+    }
+    
+    /**
+     * @param classIndex the class in the order they were added
+     * @return the name of the class
+     */
+    public String getClassName(int classIndex){
+        return names.get(classIndex);
+    }
+    
+    /**
+     * @param classIndex the class in the order they were added
+     * @return the model of the class, solved with its current parameters
+     */
+    public DoubleModel getModel(int classIndex){
+        return models.get(classIndex);
+    }
+    
+    /**
+     * Save a row for each class of its name, parameters, distance, entropy and 
+     * fitness to "Class Results.csv" and the flows of each class to a 
+     * "class Matrix.csv" file in the outputs folder.
+     * 
+     * @return true if the files were saved
+     */
+    public boolean save(){
+        DataHandler data = DataHandler.getDataHandler();
+        int count = data.getParameterCount();
+        
+        String[][] table = new String[names.size() + 1][count + 4];
+        table[0][0] = "Class";
+        for (int p = 0; p < count; p++) {table[0][p + 1] = data.getParameterName(p);}
+        table[0][count + 1] = "Distance";
+        table[0][count + 2] = "Entropy";
+        table[0][count + 3] = "Fitness";
+        
+        for (int c = 0; c < names.size(); c++) {
+            DoubleModel model = models.get(c);
+            table[c + 1][0] = names.get(c);
+            for (int p = 0; p < count; p++) {table[c + 1][p + 1] = Double.toString(parameters.get(c)[p]);}
+            table[c + 1][count + 1] = Double.toString(model.getDistance());
+            table[c + 1][count + 2] = Double.toString(model.getEntropy());
+            table[c + 1][count + 3] = Double.toString(model.getCurrentFittness());
+            
+            double[][] flows = model.getResults();
+            String[][] matrix = new String[flows.length * flows[0].length][3];
+            int k = 0;
+            for (int i = 0; i < flows.length; i++) {
+                for (int j = 0; j < flows[i].length; j++) {
+                    matrix[k][0] = data.getOriginID(i);
+                    matrix[k][1] = data.getDestinationID(j);
+                    matrix[k][2] = Double.toString(flows[i][j]);
+                    k++;
+                }
+            }
+            if ( !data.saveData(data.getOutputFile(names.get(c) + " Matrix.csv"), matrix) ){return false;}
+        }
+        
+        return data.saveData(data.getOutputFile("Class Results.csv"), table);
+    }
+    
+}
@@ -0,0 +1,141 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The destinations of each origin in order of distance and the destination weight
+ * closer to the origin than each destination, the intervening opportunities used 
+ * by the radiation and intervening opportunities models.  The order is sorted once
+ * from the distances, in parallel chunks of origins, and the intervening weights 
+ * of a row are a running sum along it.  The sums are taken for each row from the
+ * weights of the model being solved so models with different weights, such as the
+ * classes of a multi-class model, can share the index.  Only the sort is split 
+ * into chunks, the sums and the deterrence rows are filled one row at a time by 
+ * the model as it solves, so the rows of one model are not filled in parallel.
+ */
+public class OpportunityIndex {
+    
+    //the connected destinations of each origin from the nearest to the furthest
+    private final int[][] order;
+    private final double[][] distance;
+    private final int threads;
+    
+    /**
+     * @param distance the distances from each origin to each destination, -1 where
+     * they are not connected
+     * @param threads the number of chunks of origins processed at the same time
+     */
+    public OpportunityIndex(final double[][] distance, int threads){
+        this.distance = distance;
+        this.threads = Math.max(1, threads);
+        order = new int[distance.length][];
+        
+        forEachOrigin(new Origin(){
+            @Override
+            public void run(int i) {
+                final double[] row = distance[i];
+                List<Integer> connected = new ArrayList<Integer>();
+                for (int j = 0; j < row.length; j++) {
+                    if ( row[j] >= 0.0 ){connected.add(j);}
+                }
+                Integer[] sorted = connected.toArray(new Integer[connected.size()]);
+                Arrays.sort(sorted, new Comparator<Integer>(){
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return Double.compare(row[a], row[b]);
+                    }
+                });
+                int[] o = new int[sorted.length];
+                for (int k = 0; k < o.length; k++) {o[k] = sorted[k];}
+                order[i] = o;
+            }
+        });
+    }
+    
+    /**
+     * @param originIndex the origin of the row
+     * @param weights the destination weights
+     * @return the weight of the destinations strictly closer to the origin than 
+     * each destination
+     */
+    public double[] getIntervening(int originIndex, double[] weights){
+        double[] row = distance[originIndex];
+        int[] o = order[originIndex];
+        double[] sums = new double[row.length];
+        double sum = 0.0;
+        int k = 0;
+        while ( k < o.length ){
+            //destinations at the same distance do not intervene for each other
+            int tie = k;
+            while ( tie < o.length && row[o[tie]] == row[o[k]] ){
+                sums[o[tie]] = sum;
+                tie++;
+            }
+            for (; k < tie; k++) {sum += weights[o[k]];}
+        }
+        return sums;
+    }
+    
+    private interface Origin{
+        public void run(int originIndex);
+    }
+    
+    //run a task for every origin in contiguous chunks
+    private void forEachOrigin(final Origin task){
+        int origins = order.length;
+        int chunks = Math.max(1, Math.min(threads, origins));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int c = 0; c < chunks; c++) {
+            final int first = (int)((long)origins * c / chunks);
+            final int last = (int)((long)origins * (c + 1) / chunks);
+            tasks.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    for (int i = first; i < last; i++) {task.run(i);}
+                    return null;
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(chunks);
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {f.get();}
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+}
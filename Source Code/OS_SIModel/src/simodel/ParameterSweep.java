@@ -0,0 +1,202 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the model over a grid of parameter values to show the fitness, 
+ * distance and entropy landscape before a long calibration.  Each parameter can
+ * be given a range and number of points, the others are held at their starting
+ * values.  The grid is split into contiguous chunks that are run in parallel, 
+ * within a chunk each point starts balancing from the Ai and Bj of the point 
+ * before it so neighbouring points converge quickly.
+ */
+public class ParameterSweep {
+    
+    private final double[] start;
+    private final double[] minimum;
+    private final double[] maximum;
+    private final int[] points;
+    
+    private int threads = 1;
+    
+    //results for each grid point, NaN where the model did not balance
+    private double[][] grid = null;
+    private double[] fitness = null;
+    private double[] distance = null;
+    private double[] entropy = null;
+    
+    /**
+     * @param start the parameter values used for the parameters that are not swept
+     */
+    public ParameterSweep(double[] start){
+        this.start = start.clone();
+        minimum = start.clone();
+        maximum = start.clone();
+        points = new int[start.length];
+        Arrays.fill(points, 1);
+    }
+    
+    /**
+     * Sweep a parameter over a range of evenly spaced values
+     * 
+     * @param parameterIndex the parameter to sweep
+     * @param minimum the first value
+     * @param maximum the last value
+     * @param points the number of values, including the first and last
+     */
+    public void setRange(int parameterIndex, double minimum, double maximum, int points){
+        this.minimum[parameterIndex] = minimum;
+        this.maximum[parameterIndex] = maximum;
+        this.points[parameterIndex] = Math.max(1, points);
+    }
+    
+    /**
+     * @param threads the number of chunks evaluated at the same time
+     */
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Evaluate the model at every point of the grid
+     */
+    public void run(){
+        
+        int size = 1;
+        for (int p : points) {size *= p;}
+        
+        grid = new double[size][];
+        fitness = new double[size];
+        distance = new double[size];
+        entropy = new double[size];
+        
+        //the last parameter changes fastest so consecutive points are neighbours
+        for (int k = 0; k < size; k++) {
+            double[] x = start.clone();
+            int rest = k;
+            for (int p = points.length - 1; p >= 0; p--) {
+                int index = rest % points[p];
+                rest /= points[p];
+                if ( points[p] > 1 ){
+                    x[p] = minimum[p] + (maximum[p] - minimum[p]) * index / (points[p] - 1);
+                }
+            }
+            grid[k] = x;
+        }
+        
+        int chunks = Math.min(threads, size);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int c = 0; c < chunks; c++) {
+            final int first = (int)((long)size * c / chunks);
+            final int last = (int)((long)size * (c + 1) / chunks);
+            tasks.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    sweep(first, last);
+                    return null;
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(chunks);
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {f.get();}
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    //walk one chunk of the grid with a model of its own
+    private void sweep(int first, int last){
+        DoubleModel model = new DoubleModel(new Random());
+        model.setWarmStart(true);
+        for (int k = first; k < last; k++) {
+            if ( model.runModel(grid[k].clone()) ){
+                fitness[k] = model.getCurrentFittness();
+                distance[k] = model.getDistance();
+                entropy[k] = model.getEntropy();
+            }else{
+                fitness[k] = Double.NaN;
+                distance[k] = Double.NaN;
+                entropy[k] = Double.NaN;
+            }
+        }
+    }
+    
+    /**
+     * @return the parameters of the grid point with the best fitness, or the 
+     * starting parameters if no point balanced
+     */
+    public double[] getBest(){
+        int best = -1;
+        for (int k = 0; k < fitness.length; k++) {
+            if ( !Double.isNaN(fitness[k]) && (best < 0 || fitness[k] > fitness[best]) ){best = k;}
+        }
+        return best < 0 ? start.clone() : grid[best].clone();
+    }
+    
+    /**
+     * Write the landscape as a table of the parameters followed by the 
+     * fitness, distance and entropy of each grid point.
+     * 
+     * @param file the file to write
+     * @return true if the file was written
+     */
+    public boolean save(File file){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] table = new String[grid.length + 1][start.length + 3];
+        
+        for (int p = 0; p < start.length; p++) {
+            table[0][p] = start.length == data.getParameterCount() ? data.getParameterName(p) : "Parameter " + (p + 1);
+        }
+        table[0][start.length] = "Fitness";
+        table[0][start.length + 1] = "Distance";
+        table[0][start.length + 2] = "Entropy";
+        
+        for (int k = 0; k < grid.length; k++) {
+            for (int p = 0; p < start.length; p++) {
+                table[k + 1][p] = Double.toString(grid[k][p]);
+            }
+            table[k + 1][start.length] = Double.toString(fitness[k]);
+            table[k + 1][start.length + 1] = Double.toString(distance[k]);
+            table[k + 1][start.length + 2] = Double.toString(entropy[k]);
+        }
+        
+        return data.saveData(file, table);
+    }
+    
+}
@@ -0,0 +1,479 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+
+package simodel;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Calibrates the model parameters by Poisson maximum likelihood against the 
+ * observed flows, instead of searching with simulated annealing.  The doubly 
+ * constrained model is a Poisson regression of the observed flows with a fixed 
+ * effect for each origin and destination, and the balancing factors are those 
+ * fixed effects, so only the deterrence parameters are estimated.  Each iteration 
+ * of the iteratively reweighted least squares is a Fisher scoring step on the 
+ * parameters using the derivatives of the log deterrence, with the flows as the 
+ * weights and the fixed effects of the derivatives balanced out in the same 
+ * way as the flows.  The derivatives are taken numerically so any deterrence 
+ * function can be used, including ones with several parameters, origin groups 
+ * and the competing destinations term, and only kept for the rows a parameter
+ * changes.  The steps are halved if the likelihood falls, the estimates have not
+ * converged if no step improves it, and the standard errors come from the 
+ * inverse of the information matrix at the estimates.
+ * 
+ * The origin and destination weights should be the totals of the observed flows,
+ * which the maximum likelihood flows reproduce.  The singly constrained models 
+ * have fixed effects for their constrained end only and the unconstrained model 
+ * one for the total.
+ */
+public class PoissonCalibrate {
+    
+    private final DoubleModel model;
+    
+    private int maximumIterations = 50;
+    private double tolerance = 1.0E-6;
+    
+    private double[] parameters = null;
+    private double[] standardErrors = null;
+    private double logLikelihood = Double.NaN;
+    private int iterations = 0;
+    
+    /**
+     * @param model the model that is run with the parameters, it is left with 
+     * the estimates
+     */
+    public PoissonCalibrate(DoubleModel model){
+        this.model = model;
+    }
+    
+    /**
+     * @param maximumIterations the most scoring steps
+     */
+    public void setMaximumIterations(int maximumIterations){
+        this.maximumIterations = maximumIterations;
+    }
+    
+    /**
+     * @param tolerance the largest change in a parameter, as a proportion of its 
+     * standard error, when the estimates have converged
+     */
+    public void setTolerance(double tolerance){
+        this.tolerance = tolerance;
+    }
+    
+    /**
+     * Estimate the parameters from the starting values
+     * 
+     * @param start the starting parameters
+     * @return true if the estimates converged
+     */
+    public boolean calibrate(double[] start){
+        DataHandler data = DataHandler.getDataHandler();
+        SparseMatrix observed = data.getObservedFlows();
+        if ( observed == null ){
+            SpatialInteractionModel.log("Poisson calibration needs observed flows");
+            return false;
+        }
+        
+        double[] theta = start.clone();
+        if ( !model.runModel(theta.clone()) ){
+            SpatialInteractionModel.log("The model could not be balanced with the starting parameters");
+            return false;
+        }
+        logLikelihood = logLikelihood(observed, model.getResults());
+        
+        boolean convergence = false;
+        iterations = 0;
+        while ( true ){
+            double[][] information = new double[theta.length][theta.length];
+            double[] score = new double[theta.length];
+            scoring(theta, observed, information, score);
+            double[][] inverse = invert(information);
+            if ( inverse == null ){
+                SpatialInteractionModel.log("The parameters cannot be estimated, the information matrix is singular");
+                break;
+            }
+            
+            standardErrors = new double[theta.length];
+            double[] step = new double[theta.length];
+            double largest = 0.0;
+            for (int k = 0; k < theta.length; k++) {
+                standardErrors[k] = Math.sqrt(inverse[k][k]);
+                for (int l = 0; l < theta.length; l++) {step[k] += inverse[k][l] * score[l];}
+                largest = Math.max(largest, Math.abs(step[k]) / standardErrors[k]);
+            }
+            if ( largest <= tolerance ){
+                convergence = true;
+                break;
+            }
+            if ( iterations >= maximumIterations ){break;}
+            
+            //halve the step until the likelihood does not fall
+            boolean improved = false;
+            double scale = 1.0;
+            for (int h = 0; h < 30 && !improved; h++) {
+                double[] trial = new double[theta.length];
+                for (int k = 0; k < trial.length; k++) {trial[k] = theta[k] + scale * step[k];}
+                if ( model.runModel(trial.clone()) ){
+                    double ll = logLikelihood(observed, model.getResults());
+                    if ( ll >= logLikelihood ){
+                        theta = trial;
+                        logLikelihood = ll;
+                        improved = true;
+                    }
+                }
+                scale /= 2.0;
+            }
+            iterations++;
+            if ( !improved ){
+                //the model is left with the last estimates that improved the likelihood
+                model.runModel(theta.clone());
+                SpatialInteractionModel.log("No step in the scoring direction improved the log likelihood");
+                break;
+            }
+            SpatialInteractionModel.log("Poisson iteration " + iterations + " log likelihood " 
+                    + Double.toString(logLikelihood) + " parameters " + Arrays.toString(theta));
+        }
+        
+        parameters = theta;
+        return convergence;
+    }
+    
+    //the log likelihood of the observed flows without the terms that do not depend on the flows
+    private static double logLikelihood(SparseMatrix observed, double[][] flows){
+        double ll = 0.0;
+        int[][] columns = observed.getColumns();
+        double[][] values = observed.getValues();
+        for (int i = 0; i < flows.length; i++) {
+            for (double t : flows[i]) {ll -= t;}
+            for (int k = 0; k < columns[i].length; k++) {
+                ll += values[i][k] * Math.log(flows[i][columns[i][k]]);
+            }
+        }
+        return Double.isNaN(ll) ? Double.NEGATIVE_INFINITY : ll;
+    }
+    
+    //fill the information matrix and score of the parameters for the model run with theta
+    private void scoring(double[] theta, SparseMatrix observed, double[][] information, double[] score){
+        DataHandler data = DataHandler.getDataHandler();
+        double[][] flows = model.getResults();
+        int origins = flows.length;
+        int destinations = flows[0].length;
+        
+        //the cells the deterrence applies to, the rest do not depend on the parameters
+        double[][] base = new double[origins][destinations];
+        double[][] weight = new double[origins][];
+        for (int i = 0; i < origins; i++) {
+            data.fillDeterrence(i, theta, base[i]);
+            weight[i] = new double[destinations];
+            for (int j = 0; j < destinations; j++) {
+                if ( base[i][j] > 0.0 ){weight[i][j] = flows[i][j];}
+            }
+        }
+        
+        //the derivatives of the log deterrence, null for rows a parameter does not change
+        double[][][] derivative = new double[theta.length][origins][];
+        for (int k = 0; k < theta.length; k++) {
+            double h = 1.0E-4 * Math.max(Math.abs(theta[k]), 1.0E-4);
+            double[] plus = theta.clone();
+            plus[k] += h;
+            double[] minus = theta.clone();
+            minus[k] -= h;
+            double[] upper = new double[destinations];
+            double[] lower = new double[destinations];
+            for (int i = 0; i < origins; i++) {
+                if ( Arrays.equals(data.getRowParameters(i, plus), data.getRowParameters(i, theta)) ){continue;}
+                data.fillDeterrence(i, plus, upper);
+                data.fillDeterrence(i, minus, lower);
+                double[] row = new double[destinations];
+                for (int j = 0; j < destinations; j++) {
+                    if ( weight[i][j] > 0.0 && upper[j] > 0.0 && lower[j] > 0.0 ){
+                        row[j] = (Math.log(upper[j]) - Math.log(lower[j])) / (2.0 * h);
+                    }
+                }
+                derivative[k][i] = row;
+            }
+        }
+        
+        //the residuals of the cells the deterrence applies to and their sums over
+        //each fixed effect
+        int[][] columns = observed.getColumns();
+        double[][] values = observed.getValues();
+        double[][] residual = new double[origins][];
+        double[] rowResidual = new double[origins];
+        double[] columnResidual = new double[destinations];
+        for (int i = 0; i < origins; i++) {
+            double[] e = new double[destinations];
+            for (int j = 0; j < destinations; j++) {e[j] = -weight[i][j];}
+            for (int c = 0; c < columns[i].length; c++) {
+                int j = columns[i][c];
+                if ( weight[i][j] > 0.0 ){e[j] += values[i][c];}
+            }
+            for (int j = 0; j < destinations; j++) {
+                rowResidual[i] += e[j];
+                columnResidual[j] += e[j];
+            }
+            residual[i] = e;
+        }
+        
+        double[][][] effects = fixedEffects(derivative, weight);
+        for (int k = 0; k < theta.length; k++) {
+            double[] a = effects[k][0];
+            double[] b = effects[k][1];
+            
+            //the derivatives less their fixed effects are orthogonal to the fixed 
+            //effects so only one of each pair needs them taking out, and only the
+            //rows the other parameter changes add to the sum
+            for (int l = 0; l < theta.length; l++) {
+                double sum = 0.0;
+                for (int i = 0; i < origins; i++) {
+                    double[] x = derivative[l][i];
+                    if ( x == null ){continue;}
+                    double[] xk = derivative[k][i];
+                    double[] w = weight[i];
+                    for (int j = 0; j < destinations; j++) {
+                        sum += w[j] * ((xk == null ? 0.0 : xk[j]) - a[i] - b[j]) * x[j];
+                    }
+                }
+                information[k][l] = sum;
+            }
+            
+            double sum = 0.0;
+            for (int i = 0; i < origins; i++) {
+                sum -= a[i] * rowResidual[i];
+                double[] x = derivative[k][i];
+                if ( x == null ){continue;}
+                for (int j = 0; j < destinations; j++) {sum += residual[i][j] * x[j];}
+            }
+            for (int j = 0; j < destinations; j++) {sum -= b[j] * columnResidual[j];}
+            score[k] = sum;
+        }
+        
+        //symmetric apart from rounding
+        for (int k = 0; k < theta.length; k++) {
+            for (int l = 0; l < k; l++) {
+                double mean = (information[k][l] + information[l][k]) / 2.0;
+                information[k][l] = mean;
+                information[l][k] = mean;
+            }
+        }
+    }
+    
+    //the fixed effects of the model fitted to the derivatives of each parameter by 
+    //weighted least squares, the origin effects then the destination effects.  The 
+    //fit only needs the weighted sums of the derivatives over each origin and each
+    //destination, which only the rows a parameter changes add to, and the effects 
+    //of every parameter are balanced together in one pass over the weights
+    private static double[][][] fixedEffects(double[][][] derivative, double[][] weight){
+        int parameters = derivative.length;
+        int origins = weight.length;
+        int destinations = weight[0].length;
+        
+        double[] rowWeight = new double[origins];
+        double[] columnWeight = new double[destinations];
+        for (int i = 0; i < origins; i++) {
+            for (int j = 0; j < destinations; j++) {
+                rowWeight[i] += weight[i][j];
+                columnWeight[j] += weight[i][j];
+            }
+        }
+        
+        double[][] rowSum = new double[parameters][origins];
+        double[][] columnSum = new double[parameters][destinations];
+        for (int k = 0; k < parameters; k++) {
+            for (int i = 0; i < origins; i++) {
+                double[] x = derivative[k][i];
+                if ( x == null ){continue;}
+                for (int j = 0; j < destinations; j++) {
+                    double wx = weight[i][j] * x[j];
+                    rowSum[k][i] += wx;
+                    columnSum[k][j] += wx;
+                }
+            }
+        }
+        
+        double[][][] effects = new double[parameters][2][];
+        for (int k = 0; k < parameters; k++) {
+            effects[k][0] = new double[origins];
+            effects[k][1] = new double[destinations];
+        }
+        
+        int constraint = DataHandler.getDataHandler().getModelConstraint();
+        switch ( constraint ){
+            case DoubleModel.UNCONSTRAINED:
+                //one effect for the total
+                double total = 0.0;
+                for (double w : rowWeight) {total += w;}
+                for (int k = 0; k < parameters; k++) {
+                    double sum = 0.0;
+                    for (double r : rowSum[k]) {sum += r;}
+                    Arrays.fill(effects[k][0], total > 0.0 ? sum / total : 0.0);
+                }
+                return effects;
+            case DoubleModel.ATTRACTION_CONSTRAINED:
+                for (int k = 0; k < parameters; k++) {
+                    mean(columnSum[k], columnWeight, effects[k][1]);
+                }
+                return effects;
+            case DoubleModel.DOUBLY_CONSTRAINED:
+                break;
+            default:
+                for (int k = 0; k < parameters; k++) {
+                    mean(rowSum[k], rowWeight, effects[k][0]);
+                }
+                return effects;
+        }
+        
+        //the doubly constrained effects are balanced in turn until they settle
+        double[][] down = new double[parameters][destinations];
+        for (int n = 0; n < 1000; n++) {
+            double largest = 0.0;
+            double size = 0.0;
+            
+            for (double[] d : down) {Arrays.fill(d, 0.0);}
+            for (int i = 0; i < origins; i++) {
+                double[] w = weight[i];
+                if ( rowWeight[i] == 0.0 ){continue;}
+                for (int k = 0; k < parameters; k++) {
+                    double[] b = effects[k][1];
+                    double sum = 0.0;
+                    for (int j = 0; j < destinations; j++) {sum += w[j] * b[j];}
+                    double a = (rowSum[k][i] - sum) / rowWeight[i];
+                    largest = Math.max(largest, Math.abs(a - effects[k][0][i]));
+                    size = Math.max(size, Math.abs(a));
+                    effects[k][0][i] = a;
+                    double[] dk = down[k];
+                    for (int j = 0; j < destinations; j++) {dk[j] += w[j] * a;}
+                }
+            }
+            
+            for (int k = 0; k < parameters; k++) {
+                double[] b = effects[k][1];
+                for (int j = 0; j < destinations; j++) {
+                    if ( columnWeight[j] == 0.0 ){continue;}
+                    double value = (columnSum[k][j] - down[k][j]) / columnWeight[j];
+                    largest = Math.max(largest, Math.abs(value - b[j]));
+                    size = Math.max(size, Math.abs(value));
+                    b[j] = value;
+                }
+            }
+            if ( largest <= 1.0E-12 * size ){break;}
+        }
+        return effects;
+    }
+    
+    //the weighted mean of each origin or destination
+    private static void mean(double[] sum, double[] total, double[] mean){
+        for (int i = 0; i < mean.length; i++) {
+            mean[i] = total[i] > 0.0 ? sum[i] / total[i] : 0.0;
+        }
+    }
+    
+    //the inverse of a symmetric matrix by Gauss Jordan elimination, null if it is singular
+    private static double[][] invert(double[][] matrix){
+        int n = matrix.length;
+        double[][] a = new double[n][];
+        double[][] inverse = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            a[i] = matrix[i].clone();
+            inverse[i][i] = 1.0;
+        }
+        
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            for (int r = c + 1; r < n; r++) {
+                if ( Math.abs(a[r][c]) > Math.abs(a[pivot][c]) ){pivot = r;}
+            }
+            if ( !(Math.abs(a[pivot][c]) > 0.0) ){return null;}
+            double[] swap = a[c]; a[c] = a[pivot]; a[pivot] = swap;
+            swap = inverse[c]; inverse[c] = inverse[pivot]; inverse[pivot] = swap;
+            
+            double p = a[c][c];
+            for (int j = 0; j < n; j++) {
+                a[c][j] /= p;
+                inverse[c][j] /= p;
+            }
+            for (int r = 0; r < n; r++) {
+                if ( r == c || a[r][c] == 0.0 ){continue;}
+                double f = a[r][c];
+                for (int j = 0; j < n; j++) {
+                    a[r][j] -= f * a[c][j];
+                    inverse[r][j] -= f * inverse[c][j];
+                }
+            }
+        }
+        return inverse;
+    }
+    
+    /**
+     * @return the estimates from the last calibration
+     */
+    public double[] getParameters(){
+        return parameters;
+    }
+    
+    /**
+     * @return the standard errors of the estimates from the last calibration
+     */
+    public double[] getStandardErrors(){
+        return standardErrors;
+    }
+    
+    /**
+     * @return the log likelihood of the estimates, without the terms that only 
+     * depend on the observed flows
+     */
+    public double getLogLikelihood(){
+        return logLikelihood;
+    }
+    
+    /**
+     * @return the number of scoring steps taken by the last calibration
+     */
+    public int getIterations(){
+        return iterations;
+    }
+    
+    /**
+     * Save the estimates as rows of parameter, estimate, standard error and z value
+     * 
+     * @param file the file to save to
+     * @return true if the file was saved
+     */
+    public boolean save(File file){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] table = new String[parameters.length + 2][];
+        table[0] = new String[]{"Parameter", "Estimate", "Standard Error", "Z"};
+        for (int k = 0; k < parameters.length; k++) {
+            double se = standardErrors == null ? Double.NaN : standardErrors[k];
+            table[k + 1] = new String[]{
+                data.getParameterName(k), 
+                Double.toString(parameters[k]), 
+                Double.toString(se), 
+                Double.toString(parameters[k] / se)};
+        }
+        table[parameters.length + 1] = new String[]{"Log Likelihood", Double.toString(logLikelihood), "", ""};
+        return data.saveData(file, table);
+    }
+    
+}
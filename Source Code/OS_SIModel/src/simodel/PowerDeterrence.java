@@ -0,0 +1,54 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * The power deterrence function c^beta.  The function is infinite at a distance
+ * of 0 when beta is negative so zero distances are given no interaction.
+ */
+public class PowerDeterrence implements IDeterrenceFunction {
+
+    @Override
+    public int getParameterCount() {
+        return 1;
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        return new String[]{"Beta"};
+    }
+
+    @Override
+    public double[] getInitialParameters() {
+        return new double[]{-1.0};
+    }
+
+    @Override
+    public void fill(double[] distances, double[] parameters, int offset, double[] row) {
+        double beta = parameters[offset];
+        for (int j = 0; j < row.length; j++) {
+            double c = distances[j];
+            row[j] = c > 0.0 ? Math.exp(beta * Math.log(c)) : 0.0;
+        }
+    }
+    
+}
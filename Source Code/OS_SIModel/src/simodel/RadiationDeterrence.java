@@ -0,0 +1,65 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * Simini's radiation model as a deterrence function.  The flow from an origin with 
+ * weight m to a destination with weight n with s of destination weight closer to 
+ * the origin is proportional to
+ * 
+ * m n / ((m + s)(m + n + s))
+ * 
+ * The model multiplies by n so the function is m / ((m + s)(m + n + s)).  The model
+ * has no parameters, with the production constrained model the flows of each origin
+ * are scaled to its weight.
+ */
+public class RadiationDeterrence implements IOpportunityDeterrence {
+
+    @Override
+    public int getParameterCount() {
+        return 0;
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        return new String[0];
+    }
+
+    @Override
+    public double[] getInitialParameters() {
+        return new double[0];
+    }
+
+    @Override
+    public void fill(int originIndex, double[] origins, double[] destinations, double[] parameters, int offset, double[] row) {
+        DataHandler data = DataHandler.getDataHandler();
+        double[] n = destinations;
+        double[] s = data.getOpportunityIndex().getIntervening(originIndex, n);
+        double[] distances = data.getDistanceRow(originIndex);
+        double m = origins[originIndex];
+        for (int j = 0; j < row.length; j++) {
+            double d = (m + s[j]) * (m + n[j] + s[j]);
+            row[j] = distances[j] >= 0.0 && d > 0.0 ? m / d : 0.0;
+        }
+    }
+    
+}
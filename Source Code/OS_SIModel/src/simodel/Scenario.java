@@ -0,0 +1,198 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.io.File;
+
+/**
+ * A what-if scenario on a solved model, for example adding homes to an origin
+ * or closing a destination.  The weights are changed with the change and set 
+ * methods and then solve re-solves the model from its current state rather than
+ * from scratch, only recalculating the flows the changes can reach where the model
+ * allows it.  Changes build on each other until reset is called.  The loaded data
+ * in the DataHandler is not changed.
+ */
+public class Scenario {
+    
+    private final DoubleModel solvedModel;
+    private DoubleModel model;
+    private double[] origin;
+    private double[] destination;
+    
+    /**
+     * @param solvedModel a model that has been run successfully, usually with the 
+     * calibrated parameters
+     */
+    public Scenario(DoubleModel solvedModel){
+        this.solvedModel = solvedModel;
+        reset();
+    }
+    
+    /**
+     * Go back to the weights and flows of the solved model
+     */
+    public final void reset(){
+        model = solvedModel.createScenario();
+        origin = model.getOriginWeights().clone();
+        destination = model.getDestinationWeights().clone();
+    }
+    
+    /**
+     * @param index the origin to change
+     * @param change the amount to add to the origin weight
+     */
+    public void changeOrigin(int index, double change){
+        origin[index] += change;
+    }
+    
+    /**
+     * @param index the origin to change
+     * @param weight the new origin weight
+     */
+    public void setOrigin(int index, double weight){
+        origin[index] = weight;
+    }
+    
+    /**
+     * @param index the destination to change
+     * @param change the amount to add to the destination weight
+     */
+    public void changeDestination(int index, double change){
+        destination[index] += change;
+    }
+    
+    /**
+     * @param index the destination to change, a weight of 0 closes it
+     * @param weight the new destination weight
+     */
+    public void setDestination(int index, double weight){
+        destination[index] = weight;
+    }
+    
+    /**
+     * Apply the changes made since the last solve.  If the model cannot be solved
+     * the scenario is reset.
+     * 
+     * @return true if the model was solved with the new weights
+     */
+    public boolean solve(){
+        if ( model.updateWeights(origin, destination) ){
+            return true;
+        }
+        reset();
+        return false;
+    }
+    
+    /**
+     * Read the changes from a file of rows of origin or destination, the zone 
+     * identifier and the amount to add to its weight, then solve.  An unknown zone
+     * resets the scenario without solving.
+     * 
+     * @param filePath the changes file
+     * @return true if the file was read and the model solved
+     */
+    public boolean apply(String filePath){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] changes = data.loadFile(filePath);
+        if ( changes == null ){return false;}
+        
+        for (String[] row : changes) {
+            double change;
+            try{
+                change = Double.parseDouble(row[2]);
+            }catch(RuntimeException e){
+                //skip the header
+                continue;
+            }
+            if ( row[0].equalsIgnoreCase("origin") && data.getOriginIndex(row[1]) >= 0 ){
+                changeOrigin(data.getOriginIndex(row[1]), change);
+            }else if ( row[0].equalsIgnoreCase("destination") && data.getDestinationIndex(row[1]) >= 0 ){
+                changeDestination(data.getDestinationIndex(row[1]), change);
+            }else{
+                SpatialInteractionModel.log("Unknown zone in scenario " + row[0] + " " + row[1]);
+                reset();
+                return false;
+            }
+        }
+        
+        return solve();
+    }
+    
+    /**
+     * Save the flows of the last solve as rows of origin, destination and flow
+     * 
+     * @param file the file to save to
+     * @return true if the file was saved
+     */
+    public boolean save(File file){
+        DataHandler data = DataHandler.getDataHandler();
+        double[][] flows = getFlows();
+        String[][] rows = new String[flows.length * flows[0].length][3];
+        int c = 0;
+        for (int i = 0; i < flows.length; i++) {
+            for (int j = 0; j < flows[i].length; j++) {
+                rows[c][0] = data.getOriginID(i);
+                rows[c][1] = data.getDestinationID(j);
+                rows[c][2] = Double.toString(flows[i][j]);
+                c++;
+            }
+        }
+        return data.saveData(file, rows);
+    }
+    
+    /**
+     * @return the flows of the last solve, this must not be changed
+     */
+    public double[][] getFlows(){
+        return model.getResults();
+    }
+    
+    /**
+     * @return the total distance of the flows of the last solve
+     */
+    public double getDistance(){
+        return model.getDistance();
+    }
+    
+    /**
+     * @return the entropy of the flows of the last solve
+     */
+    public double getEntropy(){
+        return model.getEntropy();
+    }
+    
+    /**
+     * @return the origin weights of the last solve
+     */
+    public double[] getOriginWeights(){
+        return model.getOriginWeights().clone();
+    }
+    
+    /**
+     * @return the destination weights of the last solve, the doubly constrained 
+     * model scales these to the origin total
+     */
+    public double[] getDestinationWeights(){
+        return model.getDestinationWeights().clone();
+    }
+    
+}
@@ -0,0 +1,342 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Ranks candidate new destinations, for example new stores, by the flow a solved
+ * model predicts each would attract if it were opened on its own.  Each candidate 
+ * is an extra column added to the solved model.  The rest of the model is kept as
+ * it is so the Ai of an origin only needs the candidate's term adding to its 
+ * denominator and a candidate is evaluated in one pass over the origins rather 
+ * than by re-balancing the whole matrix.  The candidates are split into chunks 
+ * that are evaluated in parallel.
+ * 
+ * The production constrained and unconstrained models give the exact flows of the
+ * model with the candidate added.  The doubly constrained model holds the Bj of 
+ * the existing destinations at their balanced values and gives the candidate the
+ * destination weighted mean Bj.  The attraction constrained model fixes the flow
+ * into every destination at its weight so a reachable candidate attracts its weight.
+ * Only the origin trips that are not in fixed cells are distributed to a candidate.
+ * The deterrence of a candidate is the distance deterrence function of its distance
+ * so the model must not use an opportunity deterrence, a generalised cost or the
+ * competing destinations term.
+ */
+public class SiteScreening {
+    
+    private final DoubleModel model;
+    
+    private final List<String> siteID = new ArrayList<String>();
+    private final List<Double> siteWeight = new ArrayList<Double>();
+    //the distance from each origin to each site, -1 where they are not connected
+    private final List<double[]> siteDistance = new ArrayList<double[]>();
+    
+    private int threads = 1;
+    
+    private double[] inflow = null;
+    private double[] averageDistance = null;
+    
+    /**
+     * @param solvedModel a model that has been run successfully, usually with the
+     * calibrated parameters
+     */
+    public SiteScreening(DoubleModel solvedModel){
+        this.model = solvedModel;
+    }
+    
+    /**
+     * @param id the name of the candidate
+     * @param weight the destination weight the candidate would have
+     * @param distances the distance from each origin to the candidate, -1 where 
+     * they are not connected
+     */
+    public void addSite(String id, double weight, double[] distances){
+        siteID.add(id);
+        siteWeight.add(weight);
+        siteDistance.add(distances.clone());
+    }
+    
+    /**
+     * Load the candidates from a file of site and weight pairs in the same form as 
+     * the destinations and a file of origin, site and distance rows in the same form 
+     * as the distances.  Origins without a distance to a site are not connected to it.
+     * 
+     * @param sitesFile the candidate weights
+     * @param distancesFile the distances from the origins to the candidates
+     * @return true if both files were read
+     */
+    public boolean load(String sitesFile, String distancesFile){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] sites = data.loadFile(sitesFile);
+        String[][] distances = data.loadFile(distancesFile);
+        if ( sites == null || distances == null ){return false;}
+        
+        int origins = model.getOriginWeights().length;
+        HashMap<String, Integer> originIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < origins; i++) {originIndex.put(data.getOriginID(i), i);}
+        
+        HashMap<String, double[]> columns = new HashMap<String, double[]>();
+        try{
+            for (String[] row : sites) {
+                double weight;
+                try{
+                    weight = Double.parseDouble(row[1]);
+                }catch(NumberFormatException e){
+                    //skip the header
+                    continue;
+                }
+                double[] column = new double[origins];
+                Arrays.fill(column, -1.0);
+                columns.put(row[0], column);
+                siteID.add(row[0]);
+                siteWeight.add(weight);
+                siteDistance.add(column);
+            }
+            
+            for (String[] row : distances) {
+                Integer i = originIndex.get(row[0]);
+                double[] column = columns.get(row[1]);
+                if ( i == null || column == null ){continue;}
+                column[i] = Double.parseDouble(row[2]);
+            }
+        }catch(RuntimeException e){
+            SpatialInteractionModel.log("Unable to read the candidate sites " + e.getMessage());
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @param threads the number of chunks of candidates evaluated at the same time
+     */
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Evaluate every candidate
+     */
+    public void run(){
+        final int sites = siteID.size();
+        inflow = new double[sites];
+        averageDistance = new double[sites];
+        if ( sites == 0 ){return;}
+        
+        //the denominator of each origin's Ai in the solved model and the
+        //scaling of the flows the candidate is added to
+        final double[] o = model.getFreeOriginWeights();
+        final double[] denominator = new double[o.length];
+        final double[] site = {1.0, 0.0};
+        precalculate(denominator, site);
+        
+        int chunks = Math.min(threads, sites);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int c = 0; c < chunks; c++) {
+            final int first = (int)((long)sites * c / chunks);
+            final int last = (int)((long)sites * (c + 1) / chunks);
+            tasks.add(new Callable<Void>(){
+                @Override
+                public Void call() {
+                    screen(first, last, denominator, site[0], site[1]);
+                    return null;
+                }
+            });
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(chunks);
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {f.get();}
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    //find the denominators of the solved model, the Bj given to a candidate and, 
+    //for the unconstrained model, the total the single scaling factor divides by
+    private void precalculate(double[] denominator, double[] site){
+        double[] ai = model.getAi();
+        double[] bj = model.getBj();
+        double[] d = model.getDestinationWeights();
+        //the fixed cells take no part in the distribution of the other trips
+        double[] o = model.getFreeOriginWeights();
+        
+        int constraint = DataHandler.getDataHandler().getModelConstraint();
+        if ( constraint == DoubleModel.UNCONSTRAINED ){
+            //the flows are scaled by the trips over the total of O D f
+            site[1] = sum(o) / ai[0];
+            return;
+        }
+        
+        if ( constraint == DoubleModel.DOUBLY_CONSTRAINED ){
+            double weighted = 0.0;
+            double total = 0.0;
+            for (int j = 0; j < d.length; j++) {
+                weighted += bj[j] * d[j];
+                total += d[j];
+            }
+            if ( total > 0.0 ){site[0] = weighted / total;}
+        }
+        for (int i = 0; i < o.length; i++) {
+            denominator[i] = ai[i] > 0.0 ? 1.0 / ai[i] : 0.0;
+        }
+    }
+    
+    //evaluate a chunk of the candidates
+    private void screen(int first, int last, double[] denominator, double siteBj, double total){
+        DataHandler data = DataHandler.getDataHandler();
+        IDeterrenceFunction function = (IDeterrenceFunction)data.getDeterrenceFunction();
+        double[] parameters = model.getBeta();
+        double[] o = model.getFreeOriginWeights();
+        int constraint = data.getModelConstraint();
+        double trips = sum(o);
+        
+        double[] distance = new double[1];
+        double[] deterrence = new double[1];
+        
+        for (int s = first; s < last; s++) {
+            double[] column = siteDistance.get(s);
+            double weight = siteWeight.get(s);
+            
+            double flow = 0.0;
+            double travelled = 0.0;
+            double reach = 0.0;
+            //the flow from each origin before any scaling of the whole model
+            double[] t = new double[o.length];
+            for (int i = 0; i < o.length; i++) {
+                if ( column[i] < 0.0 ){continue;}
+                distance[0] = column[i];
+                function.fill(distance, parameters, data.getParameterOffset(i), deterrence);
+                double f = siteBj * weight * deterrence[0];
+                
+                if ( constraint == DoubleModel.UNCONSTRAINED || constraint == DoubleModel.ATTRACTION_CONSTRAINED ){
+                    t[i] = o[i] * f;
+                }else if ( denominator[i] + f > 0.0 ){
+                    //the origin's Ai with the candidate added to its denominator
+                    t[i] = o[i] * f / (denominator[i] + f);
+                }
+                reach += t[i];
+            }
+            
+            //the whole model is rescaled for the unconstrained model and only the 
+            //candidate's column for the attraction constrained model
+            double scale = 1.0;
+            if ( constraint == DoubleModel.UNCONSTRAINED ){
+                scale = reach + total > 0.0 ? trips / (reach + total) : 0.0;
+            }else if ( constraint == DoubleModel.ATTRACTION_CONSTRAINED ){
+                scale = reach > 0.0 ? weight / reach : 0.0;
+            }
+            
+            for (int i = 0; i < o.length; i++) {
+                flow += t[i] * scale;
+                travelled += t[i] * scale * Math.max(0.0, column[i]);
+            }
+            
+            inflow[s] = flow;
+            averageDistance[s] = flow > 0.0 ? travelled / flow : 0.0;
+        }
+    }
+    
+    private static double sum(double[] values){
+        double total = 0.0;
+        for (double v : values) {total += v;}
+        return total;
+    }
+    
+    /**
+     * @return the indexes of the candidates from the highest inflow to the lowest
+     */
+    public Integer[] getRanking(){
+        Integer[] ranking = new Integer[inflow.length];
+        for (int s = 0; s < ranking.length; s++) {ranking[s] = s;}
+        Arrays.sort(ranking, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(inflow[b], inflow[a]);
+            }
+        });
+        return ranking;
+    }
+    
+    /**
+     * @param site the index of a candidate in the order they were added
+     * @return the flow the candidate attracts
+     */
+    public double getInflow(int site){
+        return inflow[site];
+    }
+    
+    /**
+     * @param site the index of a candidate in the order they were added
+     * @return the mean distance travelled to the candidate
+     */
+    public double getAverageDistance(int site){
+        return averageDistance[site];
+    }
+    
+    /**
+     * @param site the index of a candidate in the order they were added
+     * @return the name of the candidate
+     */
+    public String getSiteID(int site){
+        return siteID.get(site);
+    }
+    
+    /**
+     * Save the candidates from the highest inflow to the lowest as rows of rank, 
+     * site, weight, inflow and mean distance.
+     * 
+     * @param file the file to save to
+     * @return true if the file was saved
+     */
+    public boolean save(File file){
+        Integer[] ranking = getRanking();
+        String[][] table = new String[ranking.length + 1][];
+        table[0] = new String[]{"Rank", "Site", "Weight", "Inflow", "Mean Distance"};
+        for (int r = 0; r < ranking.length; r++) {
+            int s = ranking[r];
+            table[r + 1] = new String[]{
+                Integer.toString(r + 1), 
+                siteID.get(s), 
+                Double.toString(siteWeight.get(s)), 
+                Double.toString(inflow[s]), 
+                Double.toString(averageDistance[s])};
+        }
+        return DataHandler.getDataHandler().saveData(file, table);
+    }
+    
+}
@@ -0,0 +1,202 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+
+package simodel;
+
+import java.util.Arrays;
+
+/**
+ * A matrix held sparsely as the columns and values of each row's cells, in column
+ * order, so the cost of using it is proportional to the number of cells rather 
+ * than the size of the matrix.  It holds the origin destination matrices that 
+ * are read from files of origin, destination and value rows such as known flows,
+ * seed matrices and observed flows.
+ */
+public class SparseMatrix {
+    
+    private final int rows;
+    private final int columns;
+    private final int[][] index;
+    private final double[][] values;
+    private final int count;
+    
+    /**
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param row the row of each cell
+     * @param column the column of each cell
+     * @param value the value of each cell, repeated cells are added together
+     */
+    public SparseMatrix(int rows, int columns, int[] row, int[] column, double[] value){
+        this.rows = rows;
+        this.columns = columns;
+        this.index = new int[rows][];
+        this.values = new double[rows][];
+        
+        //each cell's key orders the cells by row then column, the keys are sorted 
+        //as primitives and the repeated cells added together in their file order
+        long[] key = new long[row.length];
+        for (int k = 0; k < key.length; k++) {key[k] = (long)row[k] * columns + column[k];}
+        long[] sorted = key.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int k = 0; k < sorted.length; k++) {
+            if ( n == 0 || sorted[n - 1] != sorted[k] ){sorted[n++] = sorted[k];}
+        }
+        double[] sum = new double[n];
+        for (int k = 0; k < key.length; k++) {
+            sum[Arrays.binarySearch(sorted, 0, n, key[k])] += value[k];
+        }
+        
+        int k = 0;
+        for (int i = 0; i < rows; i++) {
+            int start = k;
+            while ( k < n && sorted[k] / columns == i ){k++;}
+            int[] c = new int[k - start];
+            for (int m = 0; m < c.length; m++) {c[m] = (int)(sorted[start + m] % columns);}
+            index[i] = c;
+            values[i] = Arrays.copyOfRange(sum, start, k);
+        }
+        count = n;
+    }
+    
+    /**
+     * A matrix from the cells of each row already in column order without repeats,
+     * the arrays are kept rather than copied
+     * 
+     * @param columns the number of columns
+     * @param index the columns of the cells of each row in increasing order
+     * @param values the values of the cells of each row
+     */
+    SparseMatrix(int columns, int[][] index, double[][] values){
+        this.rows = index.length;
+        this.columns = columns;
+        this.index = index;
+        this.values = values;
+        int cells = 0;
+        for (int[] c : index) {cells += c.length;}
+        count = cells;
+    }
+    
+    /**
+     * Load a matrix of origin, destination and value rows over the loaded origins
+     * and destinations
+     * 
+     * @param filePath the file to load
+     * @return the matrix or null if it could not be loaded
+     */
+    public static SparseMatrix load(String filePath){
+        DataHandler data = DataHandler.getDataHandler();
+        String[][] file = data.loadFile(filePath);
+        if ( file == null ){return null;}
+        
+        int origins = data.getOrigin().length;
+        int destinations = data.getDestination().length;
+        
+        int[] row = new int[file.length];
+        int[] column = new int[file.length];
+        double[] value = new double[file.length];
+        int n = 0;
+        for (String[] line : file) {
+            try{
+                value[n] = Double.parseDouble(line[2]);
+            }catch(NumberFormatException e){
+                //skip the header
+                continue;
+            }
+            int i = data.getOriginIndex(line[0]);
+            int j = data.getDestinationIndex(line[1]);
+            if ( i < 0 || j < 0 ){
+                SpatialInteractionModel.log("Unknown origin destination pair " + line[0] + " " + line[1]);
+                return null;
+            }
+            row[n] = i;
+            column[n] = j;
+            n++;
+        }
+        
+        return new SparseMatrix(origins, destinations, 
+                Arrays.copyOf(row, n), Arrays.copyOf(column, n), Arrays.copyOf(value, n));
+    }
+    
+    /**
+     * @return the number of rows
+     */
+    public int getRowCount(){
+        return rows;
+    }
+    
+    /**
+     * @return the number of columns
+     */
+    public int getColumnCount(){
+        return columns;
+    }
+    
+    /**
+     * @return the number of cells held
+     */
+    public int getCount(){
+        return count;
+    }
+    
+    /**
+     * @return the columns of the cells of every row in column order, this is the 
+     * array held by this object so it must not be changed
+     */
+    public int[][] getColumns(){
+        return index;
+    }
+    
+    /**
+     * @return the values of the cells of every row in the same order as the 
+     * columns, this is the array held by this object so it must not be changed
+     */
+    public double[][] getValues(){
+        return values;
+    }
+    
+    /**
+     * @return the total of each row
+     */
+    public double[] getRowTotals(){
+        double[] totals = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            for (double v : values[i]) {totals[i] += v;}
+        }
+        return totals;
+    }
+    
+    /**
+     * @return the total of each column
+     */
+    public double[] getColumnTotals(){
+        double[] totals = new double[columns];
+        for (int i = 0; i < rows; i++) {
+            int[] c = index[i];
+            double[] v = values[i];
+            for (int k = 0; k < c.length; k++) {totals[c[k]] += v[k];}
+        }
+        return totals;
+    }
+    
+}
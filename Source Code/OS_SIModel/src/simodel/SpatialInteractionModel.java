@@ -35,6 +35,8 @@ import java.io.File;
 import java.text.NumberFormat;
 import java.util.Random;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFormattedTextField;
 import javax.swing.JFrame;
@@ -43,7 +45,10 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
-import uk.ac.leeds.mass.optimisation.simulatedannealing.SimulatedAnnealing;
+import javax.swing.SwingUtilities;
+import uk.ac.leeds.mass.fmf.generic_algorithms.AnnealingTuner;
+import uk.ac.leeds.mass.fmf.generic_algorithms.OptimisationBudget;
+import uk.ac.leeds.mass.fmf.generic_algorithms.SimulatedAnnealing;
 
 
 public class SpatialInteractionModel extends JFrame implements ActionListener, Runnable, KeyListener, FocusListener{
@@ -68,17 +73,39 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
     private final JFileChooser chooser = new JFileChooser();
     
     private static SpatialInteractionModel sim = null;
+    private static boolean commandLine = false;
     
     private SimulatedAnnealing sa = new SimulatedAnnealing();
     private JFormattedTextField maximumDistance = new JFormattedTextField(NumberFormat.getNumberInstance());
+    private JCheckBox speculative = new JCheckBox("evaluate candidate changes in parallel");
+    private JCheckBox autoTune = new JCheckBox("choose the optimisation parameters from a pilot run");
+    private JCheckBox originBetas = new JCheckBox("calibrate a separate beta for each origin");
+    private JComboBox<String> model = new JComboBox<>(DoubleModel.MODEL_NAMES);
+    private JComboBox<String> deterrence = new JComboBox<>(new String[]{
+        "exponential exp(beta c)", "power c^beta", "Tanner c^alpha exp(beta c)"
+    });
+    private JFormattedTextField timeBudget = new JFormattedTextField(NumberFormat.getNumberInstance());
     private JButton run = new JButton("run optimisation");
+    private JButton stop = new JButton("stop optimisation");
+    
+    //budget for the calibration currently running, used by the stop button
+    private volatile OptimisationBudget budget = null;
+    //true from the run button being pressed until the calibration ends, only 
+    //used on the event dispatch thread
+    private boolean running = false;
     
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        //create a new instance of this class
-        SpatialInteractionModel.getCurrent();
+        if (args.length > 0){
+            //run without the window if any arguments are given
+            commandLine = true;
+            System.exit(new CommandLine(args).run() ? 0 : 1);
+        }else{
+            //create a new instance of this class
+            SpatialInteractionModel.getCurrent();
+        }
     }
 
     public static SpatialInteractionModel getCurrent(){
@@ -195,7 +222,32 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
         controlConstraints.gridy++;
         controlPanel.add(sa,controlConstraints);
         controlConstraints.gridy++;
+        controlPanel.add(new JLabel("Select the model"),controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(model,controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(new JLabel("Select the distance deterrence function"),controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(deterrence,controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(originBetas,controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(speculative,controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(autoTune,controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(new JLabel("Time limit in minutes (leave blank for no limit)"),controlConstraints);
+        controlConstraints.gridy++;
+        controlPanel.add(timeBudget,controlConstraints);
+        controlConstraints.gridy++;
         controlPanel.add(run,controlConstraints);
+        controlConstraints.gridy++;
+        
+        //create a button to stop the optimisation keeping the best fit found so far
+        stop.setEnabled(false);
+        stop.removeActionListener(this);
+        stop.addActionListener(this);
+        controlPanel.add(stop,controlConstraints);
         
         return controlPanel;
     }
@@ -209,7 +261,8 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
         }catch(Exception e){
             number = false;
         }
-        return (DataHandler.getDataHandler().isOriginLoaded() &&
+        return (!running &&
+                DataHandler.getDataHandler().isOriginLoaded() &&
                 DataHandler.getDataHandler().isDestinationLoaded() &&
                 number);
     }
@@ -241,7 +294,18 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
     }
     
     //provide a way to report messages to the screen
-    public void report(String message){
+    public void report(final String message){
+        //the models log from the calibration threads, the reporting area is only
+        //changed on the event dispatch thread
+        if (!SwingUtilities.isEventDispatchThread()){
+            SwingUtilities.invokeLater(new Runnable(){
+                @Override
+                public void run() {
+                    report(message);
+                }
+            });
+            return;
+        }
         //append the message passed into the method to the reporting area 
         //followed by a line separator
         reportingArea.append(message + System.getProperty("line.separator"));
@@ -250,6 +314,15 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
         reportingArea.repaint();
     }
 
+    //report a message to the window or the console if running from the command line
+    public static void log(String message){
+        if (commandLine){
+            System.out.println(message);
+        }else{
+            getCurrent().report(message);
+        }
+    }
+
     private void chooseFile(ActionEvent e){
         
         chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
@@ -280,8 +353,14 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
         if ( ((JButton)e.getSource()).getText().equals("...")){
             //Launch the file selector if it is any of the file selector buttons pressed
             chooseFile(e);
+        }else if ( e.getSource() == stop ){
+            //stop the optimisation at the next check, the best fit so far is saved
+            if ( budget != null ){budget.cancel();}
         }else{
-            //launch new thread to run the model if it is the run model button pressed
+            //launch new thread to run the model if it is the run model button pressed,
+            //the button is disabled first so a second press cannot start another run
+            running = true;
+            run.setEnabled(false);
             (new Thread(this)).start();
         }    
     }
@@ -289,18 +368,53 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
 
     @Override
     public void run() {
+        try{
+            calibrate();
+        }finally{
+            //the buttons are restored however the calibration ends
+            SwingUtilities.invokeLater(new Runnable(){
+                @Override
+                public void run() {
+                    running = false;
+                    budget = null;
+                    stop.setEnabled(false);
+                    run.setEnabled(checkRunStatus());
+                }
+            });
+        }
+    }
+    
+    //run the model with the settings in the window and calibrate it
+    private void calibrate() {
         
         Random r = new Random();
         
-        double[] beta = new double[1];
+        if (originBetas.isSelected()){
+            DataHandler.getDataHandler().setOriginSpecificBetas();
+        }else{
+            DataHandler.getDataHandler().clearBetaGroups();
+        }
+        
+        DataHandler.getDataHandler().setModelConstraint(model.getSelectedIndex());
+        
+        switch (deterrence.getSelectedIndex()){
+            case 1:
+                DataHandler.getDataHandler().setDeterrenceFunction(new PowerDeterrence());
+                break;
+            case 2:
+                DataHandler.getDataHandler().setDeterrenceFunction(new TannerDeterrence());
+                break;
+            default:
+                DataHandler.getDataHandler().setDeterrenceFunction(new ExponentialDeterrence());
+        }
 
         DoubleModel dm = new DoubleModel(r);
         
 //************************************************************************************/
 //* CHANGE THE INITIALISATION OF THE BETA PARAMETERS HERE IF YOU NEED TO.            */
 //************************************************************************************/
-        //initialise the beta values
-        for (int i = 0; i < beta.length; i++) {beta[i] = -0.01;}
+        //initialise the beta values from the deterrence function for each origin group
+        double[] beta = DataHandler.getDataHandler().getInitialParameters();
         
         //make an initial run of the model
         dm.runModel(beta);
@@ -309,14 +423,49 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
         SpatialInteractionModel.getCurrent().report("Distance " + Double.toString(dm.getDistance()));
         SpatialInteractionModel.getCurrent().report("Entropy " + Double.toString(dm.getEntropy()));
         
-        DoubleModelCalibrate calib = new DoubleModelCalibrate(Double.parseDouble(maximumDistance.getValue().toString()), 
-                sa.getStepsSlider().getModel().getValue(), 
-                sa.getImprovementAttemptSlider().getModel().getValue(), 
-                sa.getImprovementSlider().getModel().getValue(), 
-                sa.getFactorSlider().getModel().getValue(), 
-                r);
+        //the budget is started before the pilot so the pilot's time comes out of the limit
+        budget = new OptimisationBudget(getTimeLimit(), OptimisationBudget.UNLIMITED);
+        budget.start();
+        
+        AnnealingTuner tuner = null;
+        if (autoTune.isSelected()){
+            tuner = tune(dm);
+        }
+        
+        DoubleModelCalibrate calib;
+        if ( tuner == null ){
+            calib = new DoubleModelCalibrate(Double.parseDouble(maximumDistance.getValue().toString()), 
+                    sa.getStepsSlider().getModel().getValue(), 
+                    sa.getImprovementAttemptSlider().getModel().getValue(), 
+                    sa.getImprovementSlider().getModel().getValue(), 
+                    sa.getFactorSlider().getModel().getValue(), 
+                    r);
+        }else{
+            calib = new DoubleModelCalibrate(Double.parseDouble(maximumDistance.getValue().toString()), 
+                    tuner.getSteps(), 
+                    tuner.getAttempts(), 
+                    tuner.getSuccesses(), 
+                    tuner.getFactor(), 
+                    r);
+            calib.setInitialTemperature(tuner.getInitialTemperature());
+        }
         
+        calib.setCoolingSchedule(sa.createCoolingSchedule());
+        calib.setTerminationCriterion(sa.createTerminationCriterion());
         calib.setSa(dm);
+        if (speculative.isSelected()){
+            calib.setSpeculativeCandidates(Runtime.getRuntime().availableProcessors());
+        }
+        
+        calib.setBudget(budget);
+        
+        SwingUtilities.invokeLater(new Runnable(){
+            @Override
+            public void run() {
+                stop.setEnabled(true);
+            }
+        });
+        
         calib.optimise();
         
         SpatialInteractionModel.getCurrent().report("Calibration finished. Saving outputs");
@@ -326,6 +475,46 @@ public class SpatialInteractionModel extends JFrame implements ActionListener, R
         SpatialInteractionModel.getCurrent().report("Done.");
     }
       
+    //choose the slider settings from a pilot run to fit the time limit, or the
+    //number of evaluations the sliders currently allow if there is no limit
+    private AnnealingTuner tune(DoubleModel dm){
+        DataHandler.getDataHandler().setObservedDistance(Double.parseDouble(maximumDistance.getValue().toString()));
+        
+        long evaluations = OptimisationBudget.UNLIMITED;
+        if (getTimeLimit() == OptimisationBudget.UNLIMITED){
+            evaluations = (long)sa.getStepsSlider().getValue() * sa.getImprovementAttemptSlider().getValue() * dm.getSampleSize();
+        }
+        
+        AnnealingTuner tuner = new AnnealingTuner();
+        tuner.tune(dm, getTimeLimit(), evaluations);
+        SpatialInteractionModel.getCurrent().report(tuner.getMessage());
+        
+        //show the settings chosen on the sliders, this runs on the calibration thread
+        //so the sliders are set on the event dispatch thread
+        final AnnealingTuner chosen = tuner;
+        SwingUtilities.invokeLater(new Runnable(){
+            @Override
+            public void run() {
+                sa.getStepsSlider().setValue(chosen.getSteps());
+                sa.getImprovementAttemptSlider().setValue(chosen.getAttempts());
+                sa.getImprovementSlider().setValue(chosen.getSuccesses());
+                sa.getFactorSlider().setValue(chosen.getFactor());
+            }
+        });
+        
+        return tuner;
+    }
+      
+    //read the time limit from the text box in milliseconds
+    private long getTimeLimit(){
+        try{
+            double minutes = Double.parseDouble(timeBudget.getValue().toString());
+            return (long)(minutes * 60000);
+        }catch(Exception e){
+            return OptimisationBudget.UNLIMITED;
+        }
+    }
+      
     public static Random random(){
         return random;
     }
@@ -0,0 +1,92 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+import java.util.Arrays;
+
+/**
+ * A deterrence function given as a table of distance bands, for example from a
+ * trip length distribution.  Each band has an upper distance and a deterrence 
+ * value, distances beyond the last band use the last value.  The models only
+ * depend on the deterrence relative to the other destinations, so scaling every
+ * band by the same amount gives the same flows.  The first band keeps its value
+ * from the table and the values of the other bands are the parameters, calibrated
+ * from the values in the table.
+ */
+public class TabulatedDeterrence implements IDeterrenceFunction {
+    
+    private final double[] upperDistance;
+    private final double[] values;
+
+    /**
+     * @param upperDistance the upper distance of each band in increasing order
+     * @param values the deterrence value for each band, these must be positive
+     */
+    public TabulatedDeterrence(double[] upperDistance, double[] values) {
+        if ( upperDistance.length != values.length || values.length == 0 ){
+            throw new IllegalArgumentException("Each distance band needs one value");
+        }
+        for (int i = 1; i < upperDistance.length; i++) {
+            if ( upperDistance[i] <= upperDistance[i - 1] ){
+                throw new IllegalArgumentException("The distance bands must be in increasing order");
+            }
+        }
+        this.upperDistance = upperDistance.clone();
+        this.values = values.clone();
+    }
+
+    @Override
+    public int getParameterCount() {
+        return values.length - 1;
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        String[] names = new String[values.length - 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Band " + upperDistance[i + 1];
+        }
+        return names;
+    }
+
+    @Override
+    public double[] getInitialParameters() {
+        return Arrays.copyOfRange(values, 1, values.length);
+    }
+
+    @Override
+    public void fill(double[] distances, double[] parameters, int offset, double[] row) {
+        int last = upperDistance.length - 1;
+        for (int j = 0; j < row.length; j++) {
+            double c = distances[j];
+            if ( c == -1.0 ){
+                row[j] = 0.0;
+            }else{
+                int band = Arrays.binarySearch(upperDistance, c);
+                //an exact match is in that band, otherwise the insertion point is
+                if ( band < 0 ){band = Math.min(-band - 1, last);}
+                row[j] = band == 0 ? values[0] : parameters[offset + band - 1];
+            }
+        }
+    }
+    
+}
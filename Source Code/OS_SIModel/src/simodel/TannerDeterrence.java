@@ -0,0 +1,55 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package simodel;
+
+/**
+ * The combined (gamma or Tanner) deterrence function c^alpha * exp(beta * c).
+ * Zero distances are given no interaction as for the power function.
+ */
+public class TannerDeterrence implements IDeterrenceFunction {
+
+    @Override
+    public int getParameterCount() {
+        return 2;
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        return new String[]{"Alpha", "Beta"};
+    }
+
+    @Override
+    public double[] getInitialParameters() {
+        return new double[]{-0.5, -0.01};
+    }
+
+    @Override
+    public void fill(double[] distances, double[] parameters, int offset, double[] row) {
+        double alpha = parameters[offset];
+        double beta = parameters[offset + 1];
+        for (int j = 0; j < row.length; j++) {
+            double c = distances[j];
+            row[j] = c > 0.0 ? Math.exp(alpha * Math.log(c) + beta * c) : 0.0;
+        }
+    }
+    
+}
@@ -0,0 +1,336 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+
+package simodel;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates a file of individual trip records, rows of origin, destination and 
+ * an optional weight, into an origin destination matrix over the loaded zones 
+ * without holding the records in memory.  The file is read in chunks of lines 
+ * that are parsed in parallel, the identifiers are looked up in the DataHandler's
+ * zone index and the weights added into one counter for each thread, which are 
+ * combined at the end.  The counters are dense arrays when the matrix is small 
+ * enough and hash tables of the cells with trips otherwise.  Records for zones
+ * that are not loaded, and lines that cannot be read such as a header, are 
+ * counted and skipped.
+ */
+public class TripAggregator {
+    
+    //the largest number of cells held densely over all of the threads
+    private static final long DENSE_CELLS = 1L << 24;
+    
+    private int threads = 1;
+    private int chunkSize = 65536;
+    
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    
+    /**
+     * @param threads the number of threads parsing the records
+     */
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * @param chunkSize the number of lines parsed together
+     */
+    public void setChunkSize(int chunkSize){
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+    
+    /**
+     * @return the number of records added by the last aggregation
+     */
+    public long getRecords(){
+        return records.get();
+    }
+    
+    /**
+     * @return the number of lines skipped by the last aggregation
+     */
+    public long getSkipped(){
+        return skipped.get();
+    }
+    
+    /**
+     * @param filePath the trip records file
+     * @return the total weight of the trips between each origin and destination 
+     * or null if the file could not be read
+     */
+    public SparseMatrix aggregate(String filePath){
+        final DataHandler data = DataHandler.getDataHandler();
+        final int origins = data.getOrigin().length;
+        final int destinations = data.getDestination().length;
+        records.set(0);
+        skipped.set(0);
+        
+        final BlockingQueue<Counter> counters = new ArrayBlockingQueue<Counter>(threads);
+        boolean dense = (long)origins * destinations * threads <= DENSE_CELLS;
+        for (int t = 0; t < threads; t++) {
+            counters.add(dense ? new DenseCounter(origins, destinations) : new SparseCounter(destinations));
+        }
+        
+        //a few chunks are queued for each thread so the reading is not held up
+        final Semaphore queued = new Semaphore(threads * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        BufferedReader reader = null;
+        try{
+            reader = new BufferedReader(new FileReader(filePath), 1 << 16);
+            while ( true ){
+                final String[] chunk = new String[chunkSize];
+                int n = 0;
+                String line;
+                while ( n < chunk.length && (line = reader.readLine()) != null ){chunk[n++] = line;}
+                if ( n == 0 ){break;}
+                
+                final int lines = n;
+                queued.acquire();
+                futures.add(executor.submit(new Callable<Void>(){
+                    @Override
+                    public Void call() throws InterruptedException {
+                        Counter counter = counters.take();
+                        try{
+                            add(data, chunk, lines, counter);
+                        }finally{
+                            counters.put(counter);
+                            queued.release();
+                        }
+                        return null;
+                    }
+                }));
+                if ( n < chunk.length ){break;}
+            }
+            for (Future<Void> f : futures) {f.get();}
+        }catch(IOException ex){
+            SpatialInteractionModel.log("Unable to read the trips " + filePath + " " + ex.getMessage());
+            return null;
+        }catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            return null;
+        }catch(ExecutionException ex){
+            throw new RuntimeException(ex.getCause());
+        }finally{
+            executor.shutdownNow();
+            if ( reader != null ){
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    SpatialInteractionModel.log(ex.getMessage());
+                }
+            }
+        }
+        
+        //combine the counters into the first
+        List<Counter> all = new ArrayList<Counter>(counters);
+        Counter total = all.get(0);
+        for (int t = 1; t < all.size(); t++) {all.get(t).addTo(total);}
+        return total.toMatrix(origins, destinations);
+    }
+    
+    //parse the lines of a chunk and add their weights to the counter
+    private void add(DataHandler data, String[] chunk, int lines, Counter counter){
+        long added = 0;
+        long missed = 0;
+        for (int n = 0; n < lines; n++) {
+            String[] s = data.parseLine(chunk[n]);
+            if ( s.length < 2 ){
+                missed++;
+                continue;
+            }
+            int i = data.getOriginIndex(s[0]);
+            int j = data.getDestinationIndex(s[1]);
+            double weight = 1.0;
+            if ( s.length > 2 && !s[2].isEmpty() ){
+                try{
+                    weight = Double.parseDouble(s[2]);
+                }catch(NumberFormatException e){
+                    //the header or a weight that cannot be read
+                    weight = Double.NaN;
+                }
+            }
+            if ( i < 0 || j < 0 || Double.isNaN(weight) ){
+                missed++;
+                continue;
+            }
+            counter.add(i, j, weight);
+            added++;
+        }
+        records.addAndGet(added);
+        skipped.addAndGet(missed);
+    }
+    
+    //the total weight of each cell seen by one thread
+    private static abstract class Counter {
+        abstract void add(int i, int j, double weight);
+        abstract void addTo(Counter other);
+        abstract SparseMatrix toMatrix(int origins, int destinations);
+    }
+    
+    private static class DenseCounter extends Counter {
+        private final int destinations;
+        private final double[] cells;
+        
+        DenseCounter(int origins, int destinations){
+            this.destinations = destinations;
+            this.cells = new double[origins * destinations];
+        }
+        
+        @Override
+        void add(int i, int j, double weight){
+            cells[i * destinations + j] += weight;
+        }
+        
+        @Override
+        void addTo(Counter other){
+            for (int c = 0; c < cells.length; c++) {
+                if ( cells[c] != 0.0 ){other.add(c / destinations, c % destinations, cells[c]);}
+            }
+        }
+        
+        @Override
+        SparseMatrix toMatrix(int origins, int destinations){
+            //the cells are already in row then column order
+            int[][] index = new int[origins][];
+            double[][] rowValues = new double[origins][];
+            for (int i = 0; i < origins; i++) {
+                int first = i * destinations;
+                int n = 0;
+                for (int j = 0; j < destinations; j++) {if ( cells[first + j] != 0.0 ){n++;}}
+                index[i] = new int[n];
+                rowValues[i] = new double[n];
+                n = 0;
+                for (int j = 0; j < destinations; j++) {
+                    if ( cells[first + j] == 0.0 ){continue;}
+                    index[i][n] = j;
+                    rowValues[i][n] = cells[first + j];
+                    n++;
+                }
+            }
+            return new SparseMatrix(destinations, index, rowValues);
+        }
+    }
+    
+    //open addressing on the cell number, which is never negative so -1 marks an empty slot
+    private static class SparseCounter extends Counter {
+        private final int destinations;
+        private long[] keys = new long[1 << 10];
+        private double[] values = new double[1 << 10];
+        private int size = 0;
+        
+        SparseCounter(int destinations){
+            this.destinations = destinations;
+            Arrays.fill(keys, -1L);
+        }
+        
+        @Override
+        void add(int i, int j, double weight){
+            add((long)i * destinations + j, weight);
+        }
+        
+        private void add(long key, double weight){
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while ( keys[slot] != -1L && keys[slot] != key ){slot = (slot + 1) & mask;}
+            if ( keys[slot] == -1L ){
+                keys[slot] = key;
+                size++;
+                if ( size * 2 > keys.length ){
+                    values[slot] = weight;
+                    grow();
+                    return;
+                }
+            }
+            values[slot] += weight;
+        }
+        
+        private static int hash(long key){
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32));
+        }
+        
+        private void grow(){
+            long[] oldKeys = keys;
+            double[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new double[oldKeys.length * 2];
+            Arrays.fill(keys, -1L);
+            size = 0;
+            for (int s = 0; s < oldKeys.length; s++) {
+                if ( oldKeys[s] != -1L ){add(oldKeys[s], oldValues[s]);}
+            }
+        }
+        
+        @Override
+        void addTo(Counter other){
+            for (int s = 0; s < keys.length; s++) {
+                if ( keys[s] != -1L ){other.add((int)(keys[s] / destinations), (int)(keys[s] % destinations), values[s]);}
+            }
+        }
+        
+        @Override
+        SparseMatrix toMatrix(int origins, int destinations){
+            //the cell numbers are sorted into row then column order once here so 
+            //the rows can be given to the matrix as they are
+            long[] cells = new long[size];
+            int n = 0;
+            for (long key : keys) {if ( key != -1L ){cells[n++] = key;}}
+            Arrays.sort(cells);
+            
+            int mask = keys.length - 1;
+            int[][] index = new int[origins][];
+            double[][] rowValues = new double[origins][];
+            int c = 0;
+            for (int i = 0; i < origins; i++) {
+                int first = c;
+                while ( c < cells.length && cells[c] / destinations == i ){c++;}
+                index[i] = new int[c - first];
+                rowValues[i] = new double[c - first];
+                for (int m = first; m < c; m++) {
+                    int slot = hash(cells[m]) & mask;
+                    while ( keys[slot] != cells[m] ){slot = (slot + 1) & mask;}
+                    index[i][m - first] = (int)(cells[m] % destinations);
+                    rowValues[i][m - first] = values[slot];
+                }
+            }
+            return new SparseMatrix(destinations, index, rowValues);
+        }
+    }
+    
+}
@@ -55,8 +55,10 @@ public class Entropy  implements Serializable, IGOF{
 		if (Nq!=0){
 			for (int i=0;i<test.length;i++){
 				for (int j=0;j<test[i].length;j++){
-					//work out the entropy measure
-					if(test[i][j]>0){Hq+=(test[i][j]/Nq)*Math.log(test[i][j]/Nq);}
+					//work out the entropy measure, very small flows can underflow
+					//to a proportion of zero so test the proportion not the flow
+					double p = test[i][j]/Nq;
+					if(p>0){Hq+=p*Math.log(p);}
 				}
 			}
 		}
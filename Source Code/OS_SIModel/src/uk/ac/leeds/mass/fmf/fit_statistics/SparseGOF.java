@@ -0,0 +1,191 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+
+package uk.ac.leeds.mass.fmf.fit_statistics;
+
+/**
+ * Calculates the GOFFactory statistics between a sparse calibration matrix and 
+ * a dense test matrix without filling in the calibration matrix.  The calibration
+ * matrix is given as the columns and values of each row's non-zero cells in 
+ * column order.  Each statistic is built from sums over the cells that are 
+ * gathered in one pass over the test matrix, the cells of the calibration matrix
+ * that are not given are 0.  The results are the same as the IGOF tests with the
+ * full calibration matrix, apart from rounding, including the values they return
+ * when a statistic is not defined.  The exception is that the chi squared test 
+ * leaves out the cells that are 0 in both matrices, such as pairs that are not 
+ * connected, which would otherwise make it NaN and so 0.  A cell with an observed
+ * flow that the test matrix gives no flow makes it infinite, the worst fit.
+ *
+ * @author Kirk Harland
+ */
+public class SparseGOF {
+    
+    private final int testType;
+    private final IGOF test;
+    
+    /**
+     * @param testType one of the GOFFactory test constants
+     */
+    public SparseGOF(int testType){
+        this.test = new GOFFactory().createTest(testType);
+        if ( test == null ){
+            throw new IllegalArgumentException("Unknown test " + testType);
+        }
+        this.testType = testType;
+    }
+    
+    /**
+     * @return the test with the same statistic for full matrices
+     */
+    public IGOF getTest(){
+        return test;
+    }
+    
+    /**
+     * @param columns the columns of the non-zero cells of each calibration row in
+     * increasing order
+     * @param calib the values of the non-zero cells of each calibration row
+     * @param test the test matrix
+     * @return the statistic
+     */
+    public double test(int[][] columns, double[][] calib, double[][] test){
+        //the calibration total is needed by the Z scores of every cell
+        double total = 0.0;
+        for (double[] row : calib) {
+            for (double v : row) {total += v;}
+        }
+        //values near the means keep the R squared sums accurate
+        double cells = (double)test.length * (double)test[0].length;
+        double shift = total / cells;
+        
+        double calibLogs = 0.0;
+        double testTotal = 0.0;
+        double testLogs = 0.0;
+        double squares = 0.0;
+        double absolute = 0.0;
+        double chi = 0.0;
+        double x = 0.0;
+        double y = 0.0;
+        double xx = 0.0;
+        double yy = 0.0;
+        double xy = 0.0;
+        double z = 0.0;
+        double zSquares = 0.0;
+        
+        for (int i = 0; i < test.length; i++) {
+            int[] c = columns[i];
+            double[] v = calib[i];
+            double[] t = test[i];
+            int k = 0;
+            for (int j = 0; j < t.length; j++) {
+                double o = 0.0;
+                if ( k < c.length && c[k] == j ){
+                    o = v[k];
+                    k++;
+                }
+                double p = t[j];
+                double difference = o - p;
+                
+                if ( o > 0.0 ){calibLogs += o * Math.log(o);}
+                testTotal += p;
+                if ( p > 0.0 ){testLogs += p * Math.log(p);}
+                squares += difference * difference;
+                absolute += Math.abs(difference);
+                //a cell the test matrix gives no flow adds nothing if it has no 
+                //observed flow either and makes the statistic infinite if it has one
+                if ( p != 0.0 ){
+                    chi += difference * difference / p;
+                }else if ( o != 0.0 ){
+                    chi = Double.POSITIVE_INFINITY;
+                }
+                x += o - shift;
+                y += p - shift;
+                xx += (o - shift) * (o - shift);
+                yy += (p - shift) * (p - shift);
+                xy += (o - shift) * (p - shift);
+                if ( testType == GOFFactory.GOF_Z || testType == GOFFactory.GOF_ZSQ ){
+                    z = calcZScore(p, o, total);
+                    zSquares += z * z;
+                }
+            }
+        }
+        
+        double ret;
+        switch ( testType ){
+            case GOFFactory.GOF_SRMSE:
+                ret = Math.pow(squares / cells, 0.5) / (total / cells);
+                return Double.isNaN(ret) || Double.isInfinite(ret) ? 99999.9999 : ret;
+            case GOFFactory.GOF_AED:
+                if ( testTotal == 0.0 || total == 0.0 ){return 0.0;}
+                ret = Math.abs(calibLogs / total - testLogs / testTotal);
+                return Double.isNaN(ret) ? 1.0 : ret;
+            case GOFFactory.GOF_R2:
+                double covariance = xy - x * y / cells;
+                double calibVariance = xx - x * x / cells;
+                double testVariance = yy - y * y / cells;
+                ret = Math.pow(covariance / Math.pow(calibVariance * testVariance, 0.5), 2);
+                return Double.isNaN(ret) ? 0.0 : ret;
+            case GOFFactory.GOF_ENTROPY:
+                if ( testTotal == 0.0 ){return 0.0;}
+                ret = Math.log(testTotal) - testLogs / testTotal;
+                return Double.isNaN(ret) ? 10.0 : ret;
+            case GOFFactory.GOF_CHI2:
+                return Double.isNaN(chi) ? 0.0 : chi;
+            case GOFFactory.GOF_TAE:
+                return absolute;
+            case GOFFactory.GOF_SAE:
+                return total > 0.0 && absolute > 0.0 ? absolute / total : 0.0;
+            case GOFFactory.GOF_PE:
+                if ( total > 0.0 && absolute > 0.0 ){return absolute / 2.0 / total * 100.0;}
+                return total == 0.0 && absolute > 0.0 ? 100.0 : 0.0;
+            case GOFFactory.GOF_TE:
+                return absolute / 2.0;
+            case GOFFactory.GOF_CPE:
+                if ( total > 0.0 && absolute > 0.0 ){return absolute / total * 100.0;}
+                return total == 0.0 && absolute > 0.0 ? absolute * 100.0 : 0.0;
+            case GOFFactory.GOF_ZSQ:
+                return Double.isNaN(zSquares) ? 0.0 : zSquares;
+            default:
+                //Z is the score of the last cell
+                return Double.isNaN(z) ? 0.0 : z;
+        }
+    }
+    
+    //the same as the Z and ZSquared tests
+    private static double calcZScore(double T, double P, double N){
+        double pij = P / N;
+        double tij = T / N;
+        double numerator = 0.0;
+        if ( pij == 0 ){
+            pij = 1 / N;
+            return tij / ( Math.pow( ((pij*(1-pij)) / N) , 0.5) );
+        }else if (tij-pij > 0){
+            numerator = (tij - pij) - (1 / (2*N));
+        }else if (tij-pij < 0){
+            numerator = (tij - pij) + (1 / (2*N));
+        }else{
+            return 0;
+        }
+        return numerator / ( Math.pow( ( (pij*(1-pij)) / N ) , 0.5) );
+    }
+    
+}
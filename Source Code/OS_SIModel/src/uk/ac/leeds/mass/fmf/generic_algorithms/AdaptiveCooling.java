@@ -0,0 +1,69 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Cooling schedule that adjusts the rate of cooling to steer the proportion of
+ * accepted changes towards a target.  When more changes are accepted than the
+ * target the temperature is reduced faster than the geometric factor, when fewer
+ * are accepted it is reduced more slowly.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class AdaptiveCooling implements ICoolingSchedule {
+
+    private static final long serialVersionUID = 1L;
+
+    private double factor;
+    private double targetAcceptance;
+
+    /**
+     * @param factor the geometric factor applied when the acceptance rate is on target (0 - 1)
+     * @param targetAcceptance the proportion of attempts that should be accepted (0 - 1)
+     */
+    public AdaptiveCooling(double factor, double targetAcceptance){
+        this.factor = factor;
+        this.targetAcceptance = targetAcceptance;
+    }
+
+    @Override
+    public void initialise(double initialTemperature, int steps) {}
+
+    @Override
+    public double nextTemperature(double temperature, int attempts, int successes, boolean improved) {
+        if ( attempts == 0 ){return temperature * factor;}
+
+        double acceptance = (double)successes / (double)attempts;
+
+        //raise the factor to a power between 0.5 and 2 depending on how far
+        //the acceptance rate is from the target
+        double exponent = Math.max(0.5, Math.min(2.0, acceptance / targetAcceptance));
+
+        return temperature * Math.pow(factor, exponent);
+    }
+
+    @Override
+    public String getName() {
+        return "Adaptive acceptance rate";
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import ec.util.MersenneTwisterFast;
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Generates changes to continuous parameters using a separate step size for each
+ * parameter.  The step sizes are tuned to a target acceptance ratio using 
+ * Rechenberg's 1/5 success rule: after every adaptation interval the step is 
+ * increased if more than the target proportion of changes were accepted and 
+ * reduced if fewer were.  Any ISimulatedAnnealing implementation can use it by
+ * calling propose from suggestChange and record from makeChange and rejectChange.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class AdaptiveStepSize implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final double DEFAULT_TARGET_ACCEPTANCE = 0.2;
+    public static final int DEFAULT_INTERVAL = 10;
+    //Schwefel's recommended adjustment for the 1/5 rule
+    public static final double DEFAULT_ADJUSTMENT = 0.82;
+
+    private double[] stepSize;
+    private int[] attempts;
+    private int[] successes;
+
+    private boolean multiplicative;
+    //parameters that are changed the other way, null if there are none
+    private boolean[] exception = null;
+    private double targetAcceptance = DEFAULT_TARGET_ACCEPTANCE;
+    private int interval = DEFAULT_INTERVAL;
+    private double adjustment = DEFAULT_ADJUSTMENT;
+
+    private double minimumStepSize = 1.0E-12;
+    private double maximumStepSize = Double.MAX_VALUE;
+
+    /**
+     * @param parameters the number of parameters being changed
+     * @param initialStepSize the standard deviation of the first changes made
+     * @param multiplicative if true the changes are made to the logarithm of the parameter
+     * so the parameter keeps its sign and the step is relative to its size.  This suits
+     * parameters that may span several orders of magnitude.
+     */
+    public AdaptiveStepSize(int parameters, double initialStepSize, boolean multiplicative){
+        this.stepSize = new double[parameters];
+        this.attempts = new int[parameters];
+        this.successes = new int[parameters];
+        this.multiplicative = multiplicative;
+        for (int i = 0; i < parameters; i++) {stepSize[i] = initialStepSize;}
+    }
+
+    /**
+     * Suggest a new value for a parameter
+     *
+     * @param index the index of the parameter
+     * @param value the current value of the parameter
+     * @param random the random number generator to use
+     * @return the suggested value
+     */
+    public double propose(int index, double value, Random random){
+        return propose(index, value, random.nextGaussian());
+    }
+
+    /**
+     * Suggest a new value for a parameter
+     *
+     * @param index the index of the parameter
+     * @param value the current value of the parameter
+     * @param random the random number generator to use
+     * @return the suggested value
+     */
+    public double propose(int index, double value, MersenneTwisterFast random){
+        return propose(index, value, random.nextGaussian());
+    }
+
+    private double propose(int index, double value, double gaussian){
+        if ( multiplicative != (exception != null && exception[index]) ){
+            return value * Math.exp(stepSize[index] * gaussian);
+        }else{
+            return value + stepSize[index] * gaussian;
+        }
+    }
+
+    /**
+     * Change a single parameter additively when the others are changed multiplicatively,
+     * for a parameter that may need to change sign, or the other way round
+     *
+     * @param index the index of the parameter
+     * @param multiplicative true to change the logarithm of the parameter
+     */
+    public void setMultiplicative(int index, boolean multiplicative){
+        if ( exception == null ){exception = new boolean[stepSize.length];}
+        exception[index] = multiplicative != this.multiplicative;
+    }
+
+    /**
+     * Record whether the last change suggested for a parameter was accepted and
+     * adjust the step size once enough changes have been recorded
+     *
+     * @param index the index of the parameter
+     * @param accepted true if the change was accepted
+     */
+    public void record(int index, boolean accepted){
+        attempts[index]++;
+        if ( accepted ){successes[index]++;}
+
+        if ( attempts[index] >= interval ){
+            double acceptance = (double)successes[index] / (double)attempts[index];
+            if ( acceptance > targetAcceptance ){
+                stepSize[index] /= adjustment;
+            }else if ( acceptance < targetAcceptance ){
+                stepSize[index] *= adjustment;
+            }
+            stepSize[index] = Math.max(minimumStepSize, Math.min(maximumStepSize, stepSize[index]));
+            attempts[index] = 0;
+            successes[index] = 0;
+        }
+    }
+
+    /**
+     * @param index the index of the parameter
+     * @return the current step size for the parameter
+     */
+    public double getStepSize(int index){
+        return stepSize[index];
+    }
+
+    /**
+     * @param index the index of the parameter
+     * @param stepSize the step size to use for the parameter
+     */
+    public void setStepSize(int index, double stepSize){
+        this.stepSize[index] = stepSize;
+    }
+
+    /**
+     * @return the number of parameters
+     */
+    public int getParameterCount(){
+        return stepSize.length;
+    }
+
+    /**
+     * @param targetAcceptance the proportion of changes that should be accepted (0 - 1)
+     */
+    public void setTargetAcceptance(double targetAcceptance) {
+        this.targetAcceptance = targetAcceptance;
+    }
+
+    /**
+     * @param interval the number of changes recorded between adjustments of the step size
+     */
+    public void setInterval(int interval) {
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * @param adjustment the factor the step size is multiplied or divided by (0 - 1)
+     */
+    public void setAdjustment(double adjustment) {
+        this.adjustment = adjustment;
+    }
+
+    /**
+     * @param minimumStepSize the smallest step size allowed
+     * @param maximumStepSize the largest step size allowed
+     */
+    public void setLimits(double minimumStepSize, double maximumStepSize) {
+        this.minimumStepSize = minimumStepSize;
+        this.maximumStepSize = maximumStepSize;
+    }
+
+}
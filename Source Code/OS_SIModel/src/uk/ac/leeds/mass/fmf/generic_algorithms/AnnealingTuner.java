@@ -0,0 +1,271 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chooses the settings for a SimulatedAnnealingProcess from a short pilot run
+ * instead of the sliders.  The pilot evaluates a number of random changes to the
+ * configuration without accepting any of them, recording how much worse each change
+ * makes the fitness and how long each evaluation takes.  From these:
+ * 
+ * the initial temperature is set so that the average change that makes the fitness
+ * worse is accepted with the initial acceptance probability (Kirkpatrick's rule),
+ * 
+ * the final temperature is set so that a small change (the lower decile of the
+ * changes that made the fitness worse) is accepted with the final acceptance
+ * probability,
+ * 
+ * the number of evaluations the time limit allows is shared between the steps and
+ * attempts, and the reduction factor is chosen so the schedule cools from the initial
+ * to the final temperature over those steps.
+ * 
+ * The attempts and successes are per parameter like the sliders, they are multiplied
+ * by the sample size when the configuration is given to the SimulatedAnnealingProcess.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class AnnealingTuner {
+
+    public static final double DEFAULT_INITIAL_ACCEPTANCE = 0.8;
+    public static final double DEFAULT_FINAL_ACCEPTANCE = 0.01;
+    //the reduction factor recommended on the slider, used when the budget allows it
+    public static final double DEFAULT_FACTOR = 0.9;
+
+    private int pilotEvaluations = 20;
+    private double initialAcceptance = DEFAULT_INITIAL_ACCEPTANCE;
+    private double finalAcceptance = DEFAULT_FINAL_ACCEPTANCE;
+    //proportion of the attempts in a step that must succeed before moving to the next step
+    private double successRatio = 0.1;
+    //proportion of the time left after the pilot that is planned for, the rest is headroom
+    private double timeMargin = 0.9;
+
+    //limits matching the sliders on the SimulatedAnnealing panel
+    private int maximumSteps = 200;
+    private int minimumAttempts = 10;
+    private int maximumAttempts = 200;
+    private int maximumSuccesses = 50;
+
+    //results of the last tuning
+    private int steps;
+    private int attempts;
+    private int successes;
+    private int factor;
+    private double initialTemperature = 0.5;
+    private double finalTemperature;
+    private int pilotRun;
+    private double evaluationTime;
+    private long plannedEvaluations;
+
+    /**
+     * Run the pilot on the configuration and choose the settings.  If the configuration
+     * implements ISpeculativeSimulatedAnnealing the pilot changes are made to candidates
+     * so the parameters of the configuration and any statistics it keeps about accepted
+     * and rejected changes are left as they were, otherwise each change is rejected after
+     * it is tested.  Creating a candidate may still move the configuration on to the next
+     * parameter it would change, as it does for the candidates of a speculative step.
+     *
+     * @param sa the configuration that will be optimised, already initialised
+     * @param timeLimit the wall clock time in milliseconds the optimisation should take
+     * (including the pilot) or OptimisationBudget.UNLIMITED
+     * @param evaluationLimit the number of evaluations the optimisation should make or
+     * OptimisationBudget.UNLIMITED, at least one of the limits must be given
+     */
+    public void tune(ISimulatedAnnealing sa, long timeLimit, long evaluationLimit){
+        if ( timeLimit == OptimisationBudget.UNLIMITED && evaluationLimit == OptimisationBudget.UNLIMITED ){
+            throw new IllegalArgumentException("A time or evaluation limit is needed to tune the optimisation");
+        }
+
+        int sampleSize = Math.max(1, sa.getSampleSize());
+        List<Double> increases = new ArrayList<Double>();
+
+        //run the pilot
+        long start = System.nanoTime();
+        int pilot = Math.max(pilotEvaluations, 2 * sampleSize);
+        finalTemperature = 0.0;
+        for (int i = 0; i < pilot; i++) {
+            double difference;
+            if ( sa instanceof ISpeculativeSimulatedAnnealing ){
+                ISimulatedAnnealing candidate = ((ISpeculativeSimulatedAnnealing)sa).createCandidate();
+                difference = candidate.testChange( candidate.suggestChange() );
+            }else{
+                difference = sa.testChange( sa.suggestChange() );
+                sa.rejectChange();
+            }
+            if ( difference > 0 && !Double.isInfinite(difference) ){
+                increases.add(difference);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        pilotRun = pilot;
+        evaluationTime = (double)elapsed / pilot / 1.0E6;
+
+        //temperatures from the changes that made the fitness worse
+        if ( !increases.isEmpty() ){
+            Collections.sort(increases);
+            double mean = 0.0;
+            for (double d : increases) {mean += d;}
+            mean /= increases.size();
+            initialTemperature = -mean / Math.log(initialAcceptance);
+            finalTemperature = -increases.get(increases.size() / 10) / Math.log(finalAcceptance);
+        }
+        if ( !(finalTemperature > 0.0 && finalTemperature < initialTemperature) ){
+            finalTemperature = initialTemperature * 0.01;
+        }
+
+        //number of evaluations the limits allow once the pilot has been paid for
+        plannedEvaluations = Long.MAX_VALUE;
+        if ( timeLimit != OptimisationBudget.UNLIMITED ){
+            double remaining = (timeLimit - elapsed / 1.0E6) * timeMargin;
+            plannedEvaluations = (long)Math.max(0.0, remaining / Math.max(evaluationTime, 1.0E-6));
+        }
+        if ( evaluationLimit != OptimisationBudget.UNLIMITED ){
+            plannedEvaluations = Math.min(plannedEvaluations, evaluationLimit - pilot);
+        }
+        plannedEvaluations = Math.max(plannedEvaluations, (long)minimumAttempts * sampleSize);
+
+        //prefer the recommended factor, then fit the attempts into the evaluations
+        //and work out the factor that cools to the final temperature in the steps left
+        double cooling = Math.log(finalTemperature / initialTemperature);
+        steps = clamp((long)Math.ceil(cooling / Math.log(DEFAULT_FACTOR)), 1, maximumSteps);
+        attempts = clamp(plannedEvaluations / ((long)steps * sampleSize), minimumAttempts, maximumAttempts);
+        steps = clamp(plannedEvaluations / ((long)attempts * sampleSize), 1, maximumSteps);
+        factor = clamp(Math.round(Math.exp(cooling / steps) * 100), 1, 99);
+        successes = clamp(Math.round(attempts * successRatio), 1, maximumSuccesses);
+    }
+
+    private int clamp(long value, int minimum, int maximum){
+        return (int)Math.max(minimum, Math.min(maximum, value));
+    }
+
+    /**
+     * @return a description of the settings chosen by the last tuning
+     */
+    public String getMessage(){
+        return "Tuned from " + pilotRun + " pilot evaluations of " 
+                + String.format("%.1f", evaluationTime) + " ms: steps " + steps 
+                + ", attempts " + attempts + ", successes " + successes 
+                + ", factor " + factor + ", initial temperature " + initialTemperature;
+    }
+
+    /**
+     * @param pilotEvaluations the number of changes evaluated by the pilot, at least twice
+     * the sample size are always made
+     */
+    public void setPilotEvaluations(int pilotEvaluations) {
+        this.pilotEvaluations = Math.max(1, pilotEvaluations);
+    }
+
+    /**
+     * @param initialAcceptance probability of accepting an average change that makes the
+     * fitness worse in the first step
+     * @param finalAcceptance probability of accepting a small change that makes the fitness
+     * worse in the last step
+     */
+    public void setAcceptance(double initialAcceptance, double finalAcceptance) {
+        if ( !(finalAcceptance > 0.0 && finalAcceptance < initialAcceptance && initialAcceptance < 1.0) ){
+            throw new IllegalArgumentException("The acceptance probabilities must satisfy 0 < final < initial < 1");
+        }
+        this.initialAcceptance = initialAcceptance;
+        this.finalAcceptance = finalAcceptance;
+    }
+
+    /**
+     * @param successRatio the proportion of the attempts that must succeed to end a step
+     */
+    public void setSuccessRatio(double successRatio) {
+        this.successRatio = successRatio;
+    }
+
+    /**
+     * @param maximumSteps the largest number of steps that can be chosen
+     * @param minimumAttempts the smallest number of attempts per parameter that can be chosen
+     * @param maximumAttempts the largest number of attempts per parameter that can be chosen
+     * @param maximumSuccesses the largest number of successes per parameter that can be chosen
+     */
+    public void setLimits(int maximumSteps, int minimumAttempts, int maximumAttempts, int maximumSuccesses) {
+        this.maximumSteps = maximumSteps;
+        this.minimumAttempts = minimumAttempts;
+        this.maximumAttempts = maximumAttempts;
+        this.maximumSuccesses = maximumSuccesses;
+    }
+
+    /**
+     * @return the number of steps chosen
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the number of attempts per parameter chosen
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the number of successes per parameter chosen
+     */
+    public int getSuccesses() {
+        return successes;
+    }
+
+    /**
+     * @return the reduction factor chosen as a percentage, as used by the factor slider
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * @return the temperature for the first step
+     */
+    public double getInitialTemperature() {
+        return initialTemperature;
+    }
+
+    /**
+     * @return the temperature the schedule should reach by the last step
+     */
+    public double getFinalTemperature() {
+        return finalTemperature;
+    }
+
+    /**
+     * @return the average time taken by an evaluation in the pilot in milliseconds
+     */
+    public double getEvaluationTime() {
+        return evaluationTime;
+    }
+
+    /**
+     * @return the number of evaluations the settings were planned for
+     */
+    public long getPlannedEvaluations() {
+        return plannedEvaluations;
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Covariance matrix adaptation evolution strategy, the (mu/mu_w, lambda) version 
+ * with cumulative step size adaptation and rank-one and rank-mu covariance updates
+ * following Hansen's tutorial "The CMA Evolution Strategy".  The initial steps of 
+ * the objective set the initial standard deviation of each parameter.
+ * 
+ * Each generation of lambda points is evaluated concurrently when more than one
+ * thread is set.  The default population size is 4 + 3 ln(n), a larger population
+ * makes better use of many threads and is more robust on rugged fitness surfaces.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class CMAESProcess extends OptimisationProcess{
+
+    //0 uses the default population size
+    private int populationSize = 0;
+
+    @Override
+    protected void search() {
+        int n = objective.getDimension();
+        int lambda = populationSize > 0 ? populationSize : 4 + (int)Math.floor(3 * Math.log(n));
+        lambda = Math.max(2, lambda);
+        int mu = lambda / 2;
+
+        //recombination weights
+        double[] weights = new double[mu];
+        double sum = 0.0;
+        for (int i = 0; i < mu; i++) {
+            weights[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+            sum += weights[i];
+        }
+        double sumSquares = 0.0;
+        for (int i = 0; i < mu; i++) {
+            weights[i] /= sum;
+            sumSquares += weights[i] * weights[i];
+        }
+        double mueff = 1.0 / sumSquares;
+
+        //strategy parameters
+        double cc = (4 + mueff / n) / (n + 4 + 2 * mueff / n);
+        double cs = (mueff + 2) / (n + mueff + 5);
+        double c1 = 2 / ((n + 1.3) * (n + 1.3) + mueff);
+        double cmu = Math.min(1 - c1, 2 * (mueff - 2 + 1 / mueff) / ((n + 2) * (n + 2) + mueff));
+        double damps = 1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (n + 1)) - 1) + cs;
+        double chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21.0 * n * n));
+
+        //state, the covariance starts as the squared initial steps so sigma starts at 1
+        double[] mean = objective.getParameters();
+        double[] step = objective.getInitialSteps();
+        double sigma = 1.0;
+        double[] pc = new double[n];
+        double[] ps = new double[n];
+        double[][] c = new double[n][n];
+        double[][] b = new double[n][n];
+        double[] d = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i][i] = step[i] * step[i];
+            b[i][i] = 1.0;
+            d[i] = Math.abs(step[i]);
+        }
+
+        int generation = 0;
+        while ( !isStopped() ){
+
+            //sample the generation
+            List<double[]> points = new ArrayList<double[]>();
+            for (int k = 0; k < lambda; k++) {
+                double[] z = new double[n];
+                for (int i = 0; i < n; i++) {z[i] = d[i] * random.nextGaussian();}
+                double[] x = new double[n];
+                for (int i = 0; i < n; i++) {
+                    double y = 0.0;
+                    for (int j = 0; j < n; j++) {y += b[i][j] * z[j];}
+                    x[i] = mean[i] + sigma * y;
+                }
+                points.add(x);
+            }
+            double[] cost = evaluate(points);
+            int[] rank = rank(cost);
+
+            //move the mean to the weighted mean of the best mu points
+            double[] oldMean = mean;
+            mean = new double[n];
+            for (int k = 0; k < mu; k++) {
+                double[] x = points.get(rank[k]);
+                for (int i = 0; i < n; i++) {mean[i] += weights[k] * x[i];}
+            }
+            double[] yw = new double[n];
+            for (int i = 0; i < n; i++) {yw[i] = (mean[i] - oldMean[i]) / sigma;}
+
+            //evolution path for the step size using C^-1/2 = B D^-1 B'
+            double[] byw = new double[n];
+            for (int j = 0; j < n; j++) {
+                double v = 0.0;
+                for (int i = 0; i < n; i++) {v += b[i][j] * yw[i];}
+                byw[j] = v / d[j];
+            }
+            double psNorm = 0.0;
+            for (int i = 0; i < n; i++) {
+                double v = 0.0;
+                for (int j = 0; j < n; j++) {v += b[i][j] * byw[j];}
+                ps[i] = (1 - cs) * ps[i] + Math.sqrt(cs * (2 - cs) * mueff) * v;
+                psNorm += ps[i] * ps[i];
+            }
+            psNorm = Math.sqrt(psNorm);
+            generation++;
+
+            //evolution path for the covariance, stalled if the step size path is long
+            boolean hsig = psNorm / Math.sqrt(1 - Math.pow(1 - cs, 2 * generation)) / chiN < 1.4 + 2.0 / (n + 1);
+            for (int i = 0; i < n; i++) {
+                pc[i] = (1 - cc) * pc[i] + (hsig ? Math.sqrt(cc * (2 - cc) * mueff) * yw[i] : 0.0);
+            }
+
+            //rank-one and rank-mu update of the covariance
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double rankMu = 0.0;
+                    for (int k = 0; k < mu; k++) {
+                        double[] x = points.get(rank[k]);
+                        rankMu += weights[k] * (x[i] - oldMean[i]) * (x[j] - oldMean[j]) / (sigma * sigma);
+                    }
+                    c[i][j] = (1 - c1 - cmu) * c[i][j]
+                            + c1 * (pc[i] * pc[j] + (hsig ? 0.0 : cc * (2 - cc) * c[i][j]))
+                            + cmu * rankMu;
+                    c[j][i] = c[i][j];
+                }
+            }
+
+            //adapt the step size
+            sigma *= Math.exp((cs / damps) * (psNorm / chiN - 1));
+
+            //C = B D^2 B'
+            eigen(c, b, d);
+            double largest = 0.0;
+            for (int i = 0; i < n; i++) {
+                d[i] = Math.sqrt(Math.max(d[i], 0.0));
+                largest = Math.max(largest, d[i]);
+            }
+
+            reportBest();
+
+            //stop when the generation has converged or the steps are too small to change the mean
+            if ( isConverged(cost) ){break;}
+            if ( sigma * largest <= tolerance * (maximum(mean) + tolerance) ){break;}
+        }
+
+        reportBest();
+    }
+
+    //indices of the costs in order from lowest to highest
+    private int[] rank(double[] cost){
+        Integer[] index = new Integer[cost.length];
+        for (int i = 0; i < index.length; i++) {index[i] = i;}
+        final double[] c = cost;
+        Arrays.sort(index, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(c[a], c[b]);
+            }
+        });
+        int[] rank = new int[index.length];
+        for (int i = 0; i < rank.length; i++) {rank[i] = index[i];}
+        return rank;
+    }
+
+    private double maximum(double[] x){
+        double max = 0.0;
+        for (double v : x) {max = Math.max(max, Math.abs(v));}
+        return max;
+    }
+
+    /**
+     * Eigen decomposition of a symmetric matrix using Jacobi rotations, which is
+     * simple and accurate for the small number of parameters in these models.
+     *
+     * @param matrix the symmetric matrix, it is not modified
+     * @param vectors set to the eigenvectors in columns
+     * @param values set to the eigenvalues
+     */
+    private void eigen(double[][] matrix, double[][] vectors, double[] values){
+        int n = values.length;
+        double[][] a = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(matrix[i], 0, a[i], 0, n);
+            for (int j = 0; j < n; j++) {vectors[i][j] = i == j ? 1.0 : 0.0;}
+        }
+
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double off = 0.0;
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {off += a[i][j] * a[i][j];}
+            }
+            if ( off < 1.0E-30 ){break;}
+
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if ( a[p][q] == 0.0 ){continue;}
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if ( theta == 0.0 ){t = 1.0;}
+                    double cos = 1 / Math.sqrt(t * t + 1);
+                    double sin = t * cos;
+                    for (int k = 0; k < n; k++) {
+                        double akp = a[k][p];
+                        double akq = a[k][q];
+                        a[k][p] = cos * akp - sin * akq;
+                        a[k][q] = sin * akp + cos * akq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double apk = a[p][k];
+                        double aqk = a[q][k];
+                        a[p][k] = cos * apk - sin * aqk;
+                        a[q][k] = sin * apk + cos * aqk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double vkp = vectors[k][p];
+                        double vkq = vectors[k][q];
+                        vectors[k][p] = cos * vkp - sin * vkq;
+                        vectors[k][q] = sin * vkp + cos * vkq;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {values[i] = a[i][i];}
+    }
+
+    /**
+     * @param populationSize the number of points in each generation, 0 for the default
+     */
+    public void setPopulationSize(int populationSize) {
+        this.populationSize = Math.max(0, populationSize);
+    }
+
+}
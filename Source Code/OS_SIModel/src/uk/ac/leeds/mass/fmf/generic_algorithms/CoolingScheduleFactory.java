@@ -0,0 +1,92 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Creates the cooling schedules and termination criteria available to the
+ * simulated annealing algorithm from the index values used by the user interface
+ * and the command line.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class CoolingScheduleFactory {
+
+    public static final int COOLING_GEOMETRIC = 0;
+    public static final int COOLING_LUNDY_MEES = 1;
+    public static final int COOLING_ADAPTIVE = 2;
+    public static final int COOLING_REHEATING = 3;
+
+    public static final String[] COOLING_NAMES = {
+        "Geometric", "Lundy-Mees", "Adaptive acceptance rate", "Geometric with reheating"
+    };
+
+    public static final int TERMINATION_NONE = 0;
+    public static final int TERMINATION_RELATIVE_IMPROVEMENT = 1;
+    public static final int TERMINATION_PLATEAU = 2;
+
+    public static final String[] TERMINATION_NAMES = {
+        "Maximum steps only", "Relative improvement", "Fitness plateau"
+    };
+
+    //default settings for the schedules that need more than the factor
+    public static final double TARGET_ACCEPTANCE = 0.2;
+    public static final int REHEAT_PATIENCE = 10;
+    public static final double REHEAT_PROPORTION = 0.5;
+    public static final int TERMINATION_WINDOW = 10;
+    public static final double TERMINATION_TOLERANCE = 0.0001;
+
+    /**
+     * @param scheduleType one of the COOLING_ constants
+     * @param factor the annealing reduction factor (0 - 1)
+     * @return the cooling schedule or null if the type is not recognised
+     */
+    public ICoolingSchedule createSchedule(int scheduleType, double factor){
+        switch(scheduleType){
+            case COOLING_GEOMETRIC:
+                return new GeometricCooling(factor);
+            case COOLING_LUNDY_MEES:
+                return new LundyMeesCooling(factor);
+            case COOLING_ADAPTIVE:
+                return new AdaptiveCooling(factor, TARGET_ACCEPTANCE);
+            case COOLING_REHEATING:
+                return new ReheatingCooling(new GeometricCooling(factor), REHEAT_PATIENCE, REHEAT_PROPORTION);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param terminationType one of the TERMINATION_ constants
+     * @return the termination criterion or null if the type is TERMINATION_NONE or not recognised
+     */
+    public ITerminationCriterion createTermination(int terminationType){
+        switch(terminationType){
+            case TERMINATION_RELATIVE_IMPROVEMENT:
+                return new RelativeImprovementTermination(TERMINATION_WINDOW, TERMINATION_TOLERANCE);
+            case TERMINATION_PLATEAU:
+                return new PlateauTermination(TERMINATION_WINDOW, TERMINATION_TOLERANCE);
+            default:
+                return null;
+        }
+    }
+
+}
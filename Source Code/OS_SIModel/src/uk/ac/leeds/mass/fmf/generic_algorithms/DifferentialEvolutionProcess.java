@@ -0,0 +1,116 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Differential evolution optimiser using the DE/rand/1/bin strategy of Storn and
+ * Price.  The initial population is spread around the starting point using the 
+ * initial steps of the objective as the standard deviation, the starting point
+ * itself is kept as one of the members.
+ * 
+ * Every trial point of a generation is created before any are evaluated so the
+ * whole generation is evaluated concurrently when more than one thread is set.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class DifferentialEvolutionProcess extends OptimisationProcess{
+
+    //0 uses 10 members per parameter
+    private int populationSize = 0;
+    private double differentialWeight = 0.8;
+    private double crossover = 0.9;
+
+    @Override
+    protected void search() {
+        int n = objective.getDimension();
+        int size = Math.max(4, populationSize > 0 ? populationSize : 10 * n);
+        double[] start = objective.getParameters();
+        double[] step = objective.getInitialSteps();
+
+        //set up and evaluate the initial population
+        List<double[]> population = new ArrayList<double[]>();
+        population.add(start);
+        for (int k = 1; k < size; k++) {
+            double[] x = new double[n];
+            for (int i = 0; i < n; i++) {x[i] = start[i] + step[i] * random.nextGaussian();}
+            population.add(x);
+        }
+        double[] cost = evaluate(population);
+
+        while ( !isStopped() && !isConverged(cost) ){
+
+            //create a trial point for each member from three other distinct members
+            List<double[]> trials = new ArrayList<double[]>();
+            for (int k = 0; k < size; k++) {
+                int a, b, c;
+                do { a = random.nextInt(size); } while ( a == k );
+                do { b = random.nextInt(size); } while ( b == k || b == a );
+                do { c = random.nextInt(size); } while ( c == k || c == a || c == b );
+                double[] xa = population.get(a);
+                double[] xb = population.get(b);
+                double[] xc = population.get(c);
+
+                double[] trial = population.get(k).clone();
+                int forced = random.nextInt(n);
+                for (int i = 0; i < n; i++) {
+                    if ( i == forced || random.nextDouble() < crossover ){
+                        trial[i] = xa[i] + differentialWeight * (xb[i] - xc[i]);
+                    }
+                }
+                trials.add(trial);
+            }
+
+            //keep each trial that is at least as good as the member it came from
+            double[] trialCost = evaluate(trials);
+            for (int k = 0; k < size; k++) {
+                if ( trialCost[k] <= cost[k] ){
+                    population.set(k, trials.get(k));
+                    cost[k] = trialCost[k];
+                }
+            }
+
+            reportBest();
+        }
+
+        reportBest();
+    }
+
+    /**
+     * @param populationSize the number of members, 0 for 10 per parameter, at least 4 are used
+     */
+    public void setPopulationSize(int populationSize) {
+        this.populationSize = Math.max(0, populationSize);
+    }
+
+    /**
+     * @param differentialWeight the scale applied to the difference vector (F), usually 0.5 - 1
+     * @param crossover the probability of taking each parameter from the mutant (CR)
+     */
+    public void setControlParameters(double differentialWeight, double crossover) {
+        this.differentialWeight = differentialWeight;
+        this.crossover = crossover;
+    }
+
+}
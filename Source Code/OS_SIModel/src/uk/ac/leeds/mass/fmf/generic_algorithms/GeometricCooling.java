@@ -0,0 +1,56 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Reduces the annealing schedule by a constant factor after every step.
+ * This is the original schedule used by the simulated annealing algorithm.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class GeometricCooling implements ICoolingSchedule {
+
+    private static final long serialVersionUID = 1L;
+
+    private double factor;
+
+    /**
+     * @param factor the multiplication factor applied each step (0 - 1)
+     */
+    public GeometricCooling(double factor){
+        this.factor = factor;
+    }
+
+    @Override
+    public void initialise(double initialTemperature, int steps) {}
+
+    @Override
+    public double nextTemperature(double temperature, int attempts, int successes, boolean improved) {
+        return temperature * factor;
+    }
+
+    @Override
+    public String getName() {
+        return "Geometric";
+    }
+
+}
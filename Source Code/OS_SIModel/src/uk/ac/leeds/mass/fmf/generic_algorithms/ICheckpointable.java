@@ -0,0 +1,57 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Implemented by configurations that can save their state part way through an
+ * optimisation so that it can be resumed later.  The state is written at the end 
+ * of a step when no change is waiting to be made or rejected.  Reading it back 
+ * into a configuration created with the same data must leave it exactly as it 
+ * was when it was written, including any random number generators, so that a 
+ * resumed run gives the same results as one that was not interrupted.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public interface ICheckpointable {
+
+    /**
+     * Write the state of the configuration
+     *
+     * @param out the stream to write to
+     * @throws IOException if the state cannot be written
+     */
+    public void writeCheckpoint(ObjectOutputStream out) throws IOException;
+
+    /**
+     * Read the state of the configuration written by writeCheckpoint
+     *
+     * @param in the stream to read from
+     * @throws IOException if the state cannot be read
+     * @throws ClassNotFoundException if an object in the state cannot be created
+     */
+    public void readCheckpoint(ObjectInputStream in) throws IOException, ClassNotFoundException;
+
+}
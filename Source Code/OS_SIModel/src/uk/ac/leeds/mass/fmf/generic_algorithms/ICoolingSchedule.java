@@ -0,0 +1,61 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.io.Serializable;
+
+/**
+ * Interface implemented by the cooling schedules used to reduce the annealing
+ * schedule (temperature) between the steps of the simulated annealing algorithm.
+ *
+ * Implementations are serializable so their state can be saved in checkpoints.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public interface ICoolingSchedule extends Serializable {
+
+    /**
+     * Called before the first step of an optimisation run
+     *
+     * @param initialTemperature the annealing schedule used for the first step
+     * @param steps the maximum number of steps that will be taken
+     */
+    public void initialise(double initialTemperature, int steps);
+
+    /**
+     * Calculate the annealing schedule for the next step
+     *
+     * @param temperature the annealing schedule used for the step just completed
+     * @param attempts the number of changes attempted during the step
+     * @param successes the number of changes accepted during the step
+     * @param improved true if the best fitness found so far improved during the step
+     * @return the annealing schedule to use for the next step
+     */
+    public double nextTemperature(double temperature, int attempts, int successes, boolean improved);
+
+    /**
+     * name of the schedule to display to the user
+     * @return
+     */
+    public String getName();
+
+}
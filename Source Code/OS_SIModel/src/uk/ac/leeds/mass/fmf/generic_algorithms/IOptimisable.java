@@ -0,0 +1,75 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * An objective that can be optimised by a derivative free optimiser such as
+ * Nelder-Mead, CMA-ES or differential evolution.  Unlike ISimulatedAnnealing the
+ * optimiser chooses the parameters itself, the objective only has to say how good
+ * a set of parameters is.  Larger fitness values are better, as with 
+ * ISimulatedAnnealing.getCurrentFittness.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public interface IOptimisable {
+
+    /**
+     * @return the number of parameters being optimised
+     */
+    public int getDimension();
+
+    /**
+     * @return a copy of the current parameters, used as the starting point
+     */
+    public double[] getParameters();
+
+    /**
+     * @return the size of the first changes to make to each parameter
+     */
+    public double[] getInitialSteps();
+
+    /**
+     * Calculate the fitness of a set of parameters without changing the current
+     * parameters.  This is called from several threads at the same time when the
+     * optimiser evaluates a population concurrently so it must not modify any 
+     * shared state.
+     *
+     * @param parameters the parameters to evaluate, these must not be modified
+     * @return the fitness, larger is better, or NaN if the parameters could not be evaluated
+     */
+    public double evaluate(double[] parameters);
+
+    /**
+     * Make the parameters the current parameters, called by the optimiser each time 
+     * it finds a better set of parameters and with the best parameters at the end.
+     *
+     * @param parameters the new parameters
+     */
+    public void setParameters(double[] parameters);
+
+    /**
+     * message to display in progress bar while optimising
+     * @return
+     */
+    public String getMessage();
+
+}
@@ -0,0 +1,63 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Extension of ISimulatedAnnealing for configurations that can evaluate
+ * several suggested changes at the same time.  Each candidate is an
+ * independent copy of the current configuration so its suggestChange
+ * can be run on another thread without touching the current configuration.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public interface ISpeculativeSimulatedAnnealing extends ISimulatedAnnealing {
+
+    /**
+     * Create a copy of the current configuration that will suggest the next
+     * change in sequence, assuming all of the candidates created before it
+     * since the last accepted change are rejected.  The candidate must not
+     * share any state that its suggestChange method modifies with this object.
+     *
+     * @return a new candidate ready to have suggestChange called on it
+     */
+    public ISpeculativeSimulatedAnnealing createCandidate();
+
+    /**
+     * Make the change suggested and evaluated by the candidate the current
+     * configuration.  This replaces makeChange for speculative evaluation.
+     *
+     * @param candidate a candidate created by this object that has had
+     * suggestChange called on it
+     */
+    public void acceptCandidate(ISpeculativeSimulatedAnnealing candidate);
+
+    /**
+     * Tell the current configuration that the change evaluated by the candidate was
+     * rejected.  The current configuration is unchanged so this is only needed to keep
+     * any statistics about accepted and rejected changes up to date.
+     *
+     * @param candidate a candidate created by this object that has had
+     * suggestChange called on it
+     */
+    public void rejectCandidate(ISpeculativeSimulatedAnnealing candidate);
+
+}
@@ -0,0 +1,60 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.io.Serializable;
+
+/**
+ * Interface implemented by the tests used to end the simulated annealing
+ * algorithm early once the fitness has stopped improving.
+ *
+ * Implementations are serializable so their state can be saved in checkpoints.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public interface ITerminationCriterion extends Serializable {
+
+    /**
+     * Called before the first step of an optimisation run
+     */
+    public void initialise();
+
+    /**
+     * Test whether the optimisation has converged at the end of a step.  The energy
+     * values are accumulated from the fitness differences returned by testChange so
+     * lower is always better whether the fitness is minimised or maximised.
+     *
+     * @param energy the energy of the current configuration
+     * @param bestEnergy the lowest energy found so far
+     * @param scale the magnitude of the current fitness statistic, used to make the
+     * energy changes relative
+     * @return true if the optimisation should stop
+     */
+    public boolean isConverged(double energy, double bestEnergy, double scale);
+
+    /**
+     * name of the criterion to display to the user
+     * @return
+     */
+    public String getName();
+
+}
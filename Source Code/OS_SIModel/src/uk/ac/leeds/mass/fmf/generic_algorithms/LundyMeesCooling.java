@@ -0,0 +1,62 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Lundy and Mees (1986) cooling schedule T(k+1) = T(k) / (1 + beta * T(k)).
+ * The schedule cools quickly while the temperature is high and slowly as it
+ * approaches zero.  Beta is chosen so that the final step reaches the same
+ * temperature a geometric schedule with the same factor would reach.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class LundyMeesCooling implements ICoolingSchedule {
+
+    private static final long serialVersionUID = 1L;
+
+    private double factor;
+    private double beta = 0.0;
+
+    /**
+     * @param factor the geometric factor used to set the final temperature (0 - 1)
+     */
+    public LundyMeesCooling(double factor){
+        this.factor = factor;
+    }
+
+    @Override
+    public void initialise(double initialTemperature, int steps) {
+        double finalTemperature = initialTemperature * Math.pow(factor, steps);
+        beta = ( (1.0 / finalTemperature) - (1.0 / initialTemperature) ) / Math.max(1, steps);
+    }
+
+    @Override
+    public double nextTemperature(double temperature, int attempts, int successes, boolean improved) {
+        return temperature / (1.0 + beta * temperature);
+    }
+
+    @Override
+    public String getName() {
+        return "Lundy-Mees";
+    }
+
+}
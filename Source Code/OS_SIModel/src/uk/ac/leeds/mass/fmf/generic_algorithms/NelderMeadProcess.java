@@ -0,0 +1,169 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Nelder-Mead downhill simplex optimiser using the standard reflection (1), 
+ * expansion (2), contraction (0.5) and shrink (0.5) coefficients.  The initial 
+ * simplex is the starting point plus one point moved by the initial step along 
+ * each parameter.
+ * 
+ * The simplex method only needs one or two evaluations per iteration so it can
+ * only use a few threads.  When more than one thread is set the reflection, 
+ * expansion and both contractions are evaluated together and the unused points
+ * discarded, and the points of the initial simplex and of a shrink are all 
+ * evaluated together.  The path taken by the simplex is the same either way.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class NelderMeadProcess extends OptimisationProcess{
+
+    private static final double REFLECTION = 1.0;
+    private static final double EXPANSION = 2.0;
+    private static final double CONTRACTION = 0.5;
+    private static final double SHRINK = 0.5;
+
+    @Override
+    protected void search() {
+        int n = objective.getDimension();
+        double[] start = objective.getParameters();
+        double[] step = objective.getInitialSteps();
+
+        //set up and evaluate the initial simplex
+        List<double[]> simplex = new ArrayList<double[]>();
+        simplex.add(start);
+        for (int i = 0; i < n; i++) {
+            double[] x = start.clone();
+            x[i] += step[i];
+            simplex.add(x);
+        }
+        double[] cost = evaluate(simplex);
+
+        while ( !isStopped() && !isConverged(cost) ){
+
+            order(simplex, cost);
+            double[] worst = simplex.get(n);
+
+            //centroid of all of the points except the worst
+            double[] centroid = new double[n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {centroid[j] += simplex.get(i)[j] / n;}
+            }
+
+            double[] reflected = move(centroid, worst, -REFLECTION);
+            double[] expanded = move(centroid, worst, -REFLECTION * EXPANSION);
+            double[] outside = move(centroid, worst, -REFLECTION * CONTRACTION);
+            double[] inside = move(centroid, worst, CONTRACTION);
+
+            //evaluate the trial points, all together if they can be run concurrently
+            double[] trial = new double[]{Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+            if ( getThreads() > 1 ){
+                List<double[]> points = new ArrayList<double[]>();
+                points.add(reflected);
+                points.add(expanded);
+                points.add(outside);
+                points.add(inside);
+                trial = evaluate(points);
+            }else{
+                trial[0] = evaluate(reflected);
+            }
+
+            double[] replacement = null;
+            double replacementCost = 0.0;
+            if ( trial[0] < cost[0] ){
+                //better than the best so try going further
+                if ( Double.isNaN(trial[1]) ){trial[1] = evaluate(expanded);}
+                if ( trial[1] < trial[0] ){
+                    replacement = expanded;
+                    replacementCost = trial[1];
+                }else{
+                    replacement = reflected;
+                    replacementCost = trial[0];
+                }
+            }else if ( trial[0] < cost[n - 1] ){
+                replacement = reflected;
+                replacementCost = trial[0];
+            }else if ( trial[0] < cost[n] ){
+                if ( Double.isNaN(trial[2]) ){trial[2] = evaluate(outside);}
+                if ( trial[2] <= trial[0] ){
+                    replacement = outside;
+                    replacementCost = trial[2];
+                }
+            }else{
+                if ( Double.isNaN(trial[3]) ){trial[3] = evaluate(inside);}
+                if ( trial[3] < cost[n] ){
+                    replacement = inside;
+                    replacementCost = trial[3];
+                }
+            }
+
+            if ( replacement != null ){
+                simplex.set(n, replacement);
+                cost[n] = replacementCost;
+            }else{
+                //shrink all of the points towards the best
+                List<double[]> shrunk = new ArrayList<double[]>();
+                for (int i = 1; i <= n; i++) {
+                    shrunk.add(move(simplex.get(0), simplex.get(i), SHRINK));
+                }
+                double[] shrunkCost = evaluate(shrunk);
+                for (int i = 1; i <= n; i++) {
+                    simplex.set(i, shrunk.get(i - 1));
+                    cost[i] = shrunkCost[i - 1];
+                }
+            }
+
+            reportBest();
+        }
+
+        reportBest();
+    }
+
+    //the point from 'from' a proportion of the way towards 'to'
+    private double[] move(double[] from, double[] to, double proportion){
+        double[] x = new double[from.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = from[i] + proportion * (to[i] - from[i]);
+        }
+        return x;
+    }
+
+    //sort the simplex from the lowest to the highest cost
+    private void order(List<double[]> simplex, double[] cost){
+        for (int i = 1; i < cost.length; i++) {
+            double c = cost[i];
+            double[] x = simplex.get(i);
+            int j = i - 1;
+            while ( j >= 0 && cost[j] > c ){
+                cost[j + 1] = cost[j];
+                simplex.set(j + 1, simplex.get(j));
+                j--;
+            }
+            cost[j + 1] = c;
+            simplex.set(j + 1, x);
+        }
+    }
+
+}
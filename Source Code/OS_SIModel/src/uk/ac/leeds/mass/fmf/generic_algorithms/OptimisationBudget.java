@@ -0,0 +1,104 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A wall clock and/or evaluation count limit for an optimisation run.  The budget
+ * is shared between the optimisation algorithm and the configuration being 
+ * optimised so long running evaluations can test it and stop part way through.
+ * It can also be cancelled from another thread, for example by the user.
+ * 
+ * All of the methods are safe to call from any thread.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class OptimisationBudget {
+
+    public static final long UNLIMITED = -1;
+
+    private final long timeLimit;
+    private final long evaluationLimit;
+
+    private volatile long deadline = Long.MAX_VALUE;
+    private volatile boolean cancelled = false;
+    private final AtomicLong evaluations = new AtomicLong();
+
+    /**
+     * @param timeLimit the wall clock time allowed in milliseconds or UNLIMITED
+     * @param evaluationLimit the number of evaluations allowed or UNLIMITED
+     */
+    public OptimisationBudget(long timeLimit, long evaluationLimit){
+        this.timeLimit = timeLimit;
+        this.evaluationLimit = evaluationLimit;
+    }
+
+    /**
+     * Start the clock, called by the optimisation algorithm when it starts.  
+     * Starting the budget again does not reset the evaluations already counted.
+     */
+    public void start(){
+        if ( timeLimit != UNLIMITED && deadline == Long.MAX_VALUE ){
+            deadline = System.currentTimeMillis() + timeLimit;
+        }
+    }
+
+    /**
+     * Count one evaluation of the configuration
+     */
+    public void countEvaluation(){
+        evaluations.incrementAndGet();
+    }
+
+    /**
+     * @return the number of evaluations counted so far
+     */
+    public long getEvaluations(){
+        return evaluations.get();
+    }
+
+    /**
+     * Stop the optimisation at the next check
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the budget was cancelled rather than used up
+     */
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * @return true if the optimisation should stop, because the time or evaluations 
+     * have run out or the budget has been cancelled
+     */
+    public boolean isExpired(){
+        return cancelled
+                || System.currentTimeMillis() >= deadline
+                || ( evaluationLimit != UNLIMITED && evaluations.get() >= evaluationLimit );
+    }
+
+}
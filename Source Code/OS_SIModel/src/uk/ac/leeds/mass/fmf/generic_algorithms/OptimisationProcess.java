@@ -0,0 +1,295 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+import ec.util.MersenneTwisterFast;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import uk.ac.leeds.mass.fmf.shared_objects.FrameworkProcess;
+
+/**
+ * Shared machinery for the derivative free optimisers.  The optimisers minimise a
+ * cost, which is minus the fitness of the IOptimisable, so parameters that cannot
+ * be evaluated are given an infinite cost.  Points are evaluated in batches which
+ * run concurrently when more than one thread is set.  The optimisation ends when 
+ * the optimiser converges, the maximum number of evaluations is reached, the budget
+ * runs out or the process is cancelled.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public abstract class OptimisationProcess extends FrameworkProcess{
+
+    protected IOptimisable objective = null;
+
+    protected MersenneTwisterFast random = new MersenneTwisterFast();
+
+    protected int maximumEvaluations = 1000;
+    protected double tolerance = 1.0E-8;
+
+    private int threads = 1;
+    private ExecutorService executor = null;
+
+    //optional time and evaluation limit
+    private OptimisationBudget budget = null;
+
+    private int evaluations = 0;
+    private double[] best = null;
+    private double bestCost = Double.POSITIVE_INFINITY;
+    private boolean improved = false;
+
+    @Override
+    public void runProcess() {
+        optimise();
+    }
+
+    /**
+     * Run the optimisation from the current parameters of the objective.  The objective
+     * is left with the best parameters found.
+     */
+    public void optimise(){
+
+        setName(objective.getMessage());
+
+        //initialise progress bar
+        initilise(maximumEvaluations);
+
+        evaluations = 0;
+        best = objective.getParameters();
+        bestCost = Double.POSITIVE_INFINITY;
+        improved = false;
+
+        if ( budget != null ){budget.start();}
+        if ( threads > 1 ){
+            executor = Executors.newFixedThreadPool(threads);
+        }
+
+        //the pool is shut down even if an evaluation fails so it cannot keep the
+        //application running
+        try {
+            search();
+        } finally {
+            if ( executor != null ){
+                executor.shutdown();
+                executor = null;
+            }
+        }
+
+        objective.setParameters(Arrays.copyOf(best, best.length));
+
+        //end process
+        if ( !cancelled ){finished();}
+    }
+
+    /**
+     * The optimisation algorithm, it should keep calling evaluate until it converges
+     * or isStopped returns true.
+     */
+    protected abstract void search();
+
+    /**
+     * Evaluate the cost of several points, concurrently if more than one thread is set.
+     *
+     * @param points the points to evaluate
+     * @return the cost of each point, infinite if it could not be evaluated
+     */
+    protected double[] evaluate(List<double[]> points){
+        double[] cost = new double[points.size()];
+
+        if ( executor == null || points.size() == 1 ){
+            for (int i = 0; i < cost.length; i++) {
+                cost[i] = cost(points.get(i));
+            }
+        }else{
+            List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+            for (final double[] point : points) {
+                tasks.add(new Callable<Double>(){
+                    @Override
+                    public Double call() {
+                        return cost(point);
+                    }
+                });
+            }
+            try {
+                List<Future<Double>> futures = executor.invokeAll(tasks);
+                for (int i = 0; i < cost.length; i++) {
+                    cost[i] = futures.get(i).get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                Arrays.fill(cost, Double.POSITIVE_INFINITY);
+            } catch (ExecutionException ex) {
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+
+        //record the counts and the best point on this thread
+        for (int i = 0; i < cost.length; i++) {
+            evaluations++;
+            if ( budget != null ){budget.countEvaluation();}
+            if ( cost[i] < bestCost ){
+                bestCost = cost[i];
+                best = Arrays.copyOf(points.get(i), points.get(i).length);
+                improved = true;
+            }
+        }
+        progress = Math.min(evaluations, maximumEvaluations);
+
+        return cost;
+    }
+
+    /**
+     * Evaluate the cost of one point.
+     *
+     * @param point the point to evaluate
+     * @return the cost of the point, infinite if it could not be evaluated
+     */
+    protected double evaluate(double[] point){
+        List<double[]> points = new ArrayList<double[]>();
+        points.add(point);
+        return evaluate(points)[0];
+    }
+
+    private double cost(double[] point){
+        double fitness = objective.evaluate(point);
+        return Double.isNaN(fitness) ? Double.POSITIVE_INFINITY : -fitness;
+    }
+
+    /**
+     * Give the objective the best parameters found if they have improved since
+     * the last time this was called, called by the optimisers once per iteration.
+     */
+    protected void reportBest(){
+        if ( improved ){
+            objective.setParameters(Arrays.copyOf(best, best.length));
+            improved = false;
+        }
+    }
+
+    /**
+     * @return true if the optimisation should end now
+     */
+    protected boolean isStopped(){
+        return cancelled || evaluations >= maximumEvaluations || (budget != null && budget.isExpired());
+    }
+
+    /**
+     * @param cost the costs of the current points
+     * @return true if the costs are all within the tolerance of each other
+     */
+    protected boolean isConverged(double[] cost){
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double c : cost) {
+            min = Math.min(min, c);
+            max = Math.max(max, c);
+        }
+        return max - min <= tolerance * (Math.abs(min) + tolerance);
+    }
+
+    /**
+     * @return the number of evaluations made by the last optimisation
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return the best parameters found by the last optimisation
+     */
+    public double[] getBest() {
+        return Arrays.copyOf(best, best.length);
+    }
+
+    /**
+     * @return the fitness of the best parameters found by the last optimisation
+     */
+    public double getBestFitness() {
+        return -bestCost;
+    }
+
+    /**
+     * @param objective the objective to optimise
+     */
+    public void setObjective(IOptimisable objective) {
+        this.objective = objective;
+    }
+
+    /**
+     * @return the objective being optimised
+     */
+    public IOptimisable getObjective() {
+        return objective;
+    }
+
+    public void setRandomSeed(Long seed){
+        random.setSeed(seed);
+    }
+
+    /**
+     * @param maximumEvaluations the largest number of evaluations to make
+     */
+    public void setMaximumEvaluations(int maximumEvaluations) {
+        this.maximumEvaluations = Math.max(1, maximumEvaluations);
+    }
+
+    /**
+     * @param tolerance the relative difference in cost below which the optimiser has converged
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param threads the number of points evaluated at the same time, usually the number of processors
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return the number of points evaluated at the same time
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the time and evaluation limit for the optimisation, null if there is none
+     */
+    public OptimisationBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param budget the time and/or evaluation limit or null to remove the limit
+     */
+    public void setBudget(OptimisationBudget budget) {
+        this.budget = budget;
+    }
+
+}
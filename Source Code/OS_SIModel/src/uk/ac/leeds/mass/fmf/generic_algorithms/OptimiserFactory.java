@@ -0,0 +1,57 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Creates the derivative free optimisers from the index values used by the
+ * user interface and the command line.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class OptimiserFactory {
+
+    public static final int NELDER_MEAD = 0;
+    public static final int CMA_ES = 1;
+    public static final int DIFFERENTIAL_EVOLUTION = 2;
+
+    public static final String[] NAMES = {
+        "Nelder-Mead simplex", "CMA-ES", "Differential evolution"
+    };
+
+    /**
+     * @param optimiserType one of the constants
+     * @return the optimiser or null if the type is not recognised
+     */
+    public OptimisationProcess createOptimiser(int optimiserType){
+        switch(optimiserType){
+            case NELDER_MEAD:
+                return new NelderMeadProcess();
+            case CMA_ES:
+                return new CMAESProcess();
+            case DIFFERENTIAL_EVOLUTION:
+                return new DifferentialEvolutionProcess();
+            default:
+                return null;
+        }
+    }
+
+}
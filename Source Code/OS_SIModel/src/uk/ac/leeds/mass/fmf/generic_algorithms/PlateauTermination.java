@@ -0,0 +1,73 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Ends the optimisation when the fitness of the current configuration has stayed
+ * within a band of a proportion of the fitness for a number of consecutive steps.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class PlateauTermination implements ITerminationCriterion {
+
+    private static final long serialVersionUID = 1L;
+
+    private int steps;
+    private double tolerance;
+
+    private double plateauEnergy = 0.0;
+    private int stepsOnPlateau = -1;
+
+    /**
+     * @param steps the number of steps the fitness must stay on the plateau
+     * @param tolerance the width of the plateau relative to the fitness
+     */
+    public PlateauTermination(int steps, double tolerance){
+        this.steps = steps;
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public void initialise() {
+        stepsOnPlateau = -1;
+    }
+
+    @Override
+    public boolean isConverged(double energy, double bestEnergy, double scale) {
+        if ( stepsOnPlateau < 0 || Math.abs(energy - plateauEnergy) > tolerance * Math.max(scale, Double.MIN_NORMAL) ){
+            //start a new plateau from this step
+            plateauEnergy = energy;
+            stepsOnPlateau = 0;
+            return false;
+        }
+
+        stepsOnPlateau++;
+
+        return stepsOnPlateau >= steps;
+    }
+
+    @Override
+    public String getName() {
+        return "Fitness plateau for " + steps + " steps";
+    }
+
+}
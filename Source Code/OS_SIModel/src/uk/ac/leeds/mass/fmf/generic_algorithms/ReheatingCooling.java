@@ -0,0 +1,81 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Wraps another cooling schedule and raises the temperature again when the best
+ * fitness has not improved for a number of steps, allowing the algorithm to
+ * escape from a local optimum.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class ReheatingCooling implements ICoolingSchedule {
+
+    private static final long serialVersionUID = 1L;
+
+    private ICoolingSchedule schedule;
+    private int patience;
+    private double reheatProportion;
+
+    private double initialTemperature = 0.0;
+    private int stepsWithoutImprovement = 0;
+
+    /**
+     * @param schedule the schedule used between reheats
+     * @param patience the number of steps without improvement before reheating
+     * @param reheatProportion the proportion of the initial temperature to reheat to (0 - 1)
+     */
+    public ReheatingCooling(ICoolingSchedule schedule, int patience, double reheatProportion){
+        this.schedule = schedule;
+        this.patience = patience;
+        this.reheatProportion = reheatProportion;
+    }
+
+    @Override
+    public void initialise(double initialTemperature, int steps) {
+        this.initialTemperature = initialTemperature;
+        stepsWithoutImprovement = 0;
+        schedule.initialise(initialTemperature, steps);
+    }
+
+    @Override
+    public double nextTemperature(double temperature, int attempts, int successes, boolean improved) {
+        if ( improved ){
+            stepsWithoutImprovement = 0;
+        }else{
+            stepsWithoutImprovement++;
+        }
+
+        if ( stepsWithoutImprovement >= patience ){
+            stepsWithoutImprovement = 0;
+            return Math.max(temperature, initialTemperature * reheatProportion);
+        }
+
+        return schedule.nextTemperature(temperature, attempts, successes, improved);
+    }
+
+    @Override
+    public String getName() {
+        return "Reheating " + schedule.getName();
+    }
+
+}
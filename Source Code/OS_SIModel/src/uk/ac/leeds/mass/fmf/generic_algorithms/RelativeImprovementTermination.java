@@ -0,0 +1,75 @@
+/*
+ *   The Flexible Modelling Framework is a Social Science application for 
+ *   synthesising individual level populations
+ *   Copyright (C) 2013  Kirk Harland
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Contact email: k.harland@leeds.ac.uk
+ */
+
+package uk.ac.leeds.mass.fmf.generic_algorithms;
+
+/**
+ * Ends the optimisation when the best fitness has improved by less than a
+ * proportion of the current fitness over a window of steps.
+ *
+ * @author Kirk Harland k.harland98@leeds.ac.uk
+ */
+public class RelativeImprovementTermination implements ITerminationCriterion {
+
+    private static final long serialVersionUID = 1L;
+
+    private int window;
+    private double tolerance;
+
+    //best energy at the end of each of the last window steps
+    private double[] history;
+    private int step = 0;
+
+    /**
+     * @param window the number of steps the improvement is measured over
+     * @param tolerance the relative improvement below which the optimisation ends
+     */
+    public RelativeImprovementTermination(int window, double tolerance){
+        this.window = Math.max(1, window);
+        this.tolerance = tolerance;
+        this.history = new double[this.window];
+    }
+
+    @Override
+    public void initialise() {
+        step = 0;
+    }
+
+    @Override
+    public boolean isConverged(double energy, double bestEnergy, double scale) {
+        int slot = step % window;
+        boolean full = step >= window;
+        double improvement = full ? history[slot] - bestEnergy : 0.0;
+
+        history[slot] = bestEnergy;
+        step++;
+
+        if ( !full ){return false;}
+
+        return improvement <= tolerance * Math.max(scale, Double.MIN_NORMAL);
+    }
+
+    @Override
+    public String getName() {
+        return "Relative improvement over " + window + " steps";
+    }
+
+}
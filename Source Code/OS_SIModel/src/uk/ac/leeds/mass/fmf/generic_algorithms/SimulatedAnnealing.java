@@ -42,6 +42,8 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
         this.getImprovementAttemptSlider().setEnabled(enable);
         this.getImprovementSlider().setEnabled(enable);
         this.getFactorSlider().setEnabled(enable);
+        this.coolingComboBox.setEnabled(enable);
+        this.terminationComboBox.setEnabled(enable);
     }
 
 
@@ -67,6 +69,10 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
         factorSlider = new javax.swing.JSlider();
         factorLabel = new javax.swing.JLabel();
         factorValue = new javax.swing.JLabel();
+        coolingLabel = new javax.swing.JLabel();
+        coolingComboBox = new javax.swing.JComboBox<>();
+        terminationLabel = new javax.swing.JLabel();
+        terminationComboBox = new javax.swing.JComboBox<>();
 
         stepsSlider.setMajorTickSpacing(20);
         stepsSlider.setMaximum(200);
@@ -136,6 +142,16 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
         binding = org.jdesktop.beansbinding.Bindings.createAutoBinding(org.jdesktop.beansbinding.AutoBinding.UpdateStrategy.READ_ONCE, factorSlider, org.jdesktop.beansbinding.ELProperty.create("${model.value/100}"), factorValue, org.jdesktop.beansbinding.BeanProperty.create("text"));
         bindingGroup.addBinding(binding);
 
+        coolingLabel.setText("select the cooling schedule used to reduce the annealing schedule");
+
+        coolingComboBox.setModel(new javax.swing.DefaultComboBoxModel<>(CoolingScheduleFactory.COOLING_NAMES));
+        coolingComboBox.setToolTipText("set how the annealing schedule is reduced between steps, all of the schedules use the annealing reduction factor");
+
+        terminationLabel.setText("select when to stop once the fitness stops improving");
+
+        terminationComboBox.setModel(new javax.swing.DefaultComboBoxModel<>(CoolingScheduleFactory.TERMINATION_NAMES));
+        terminationComboBox.setToolTipText("end the optimisation before the maximum number of steps once the fitness has converged");
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -163,7 +179,11 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
                         .addComponent(improvementSlider, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addGap(18, 18, 18)
                         .addComponent(improvementValue))
-                    .addComponent(factorLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 321, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addComponent(factorLabel, javax.swing.GroupLayout.PREFERRED_SIZE, 321, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(coolingLabel)
+                    .addComponent(coolingComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(terminationLabel)
+                    .addComponent(terminationComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
         layout.setVerticalGroup(
@@ -199,6 +219,14 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
                     .addGroup(layout.createSequentialGroup()
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                         .addComponent(factorValue, javax.swing.GroupLayout.PREFERRED_SIZE, 20, javax.swing.GroupLayout.PREFERRED_SIZE)))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(coolingLabel)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(coolingComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(terminationLabel)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(terminationComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addContainerGap())
         );
 
@@ -223,6 +251,8 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
 
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JComboBox<String> coolingComboBox;
+    private javax.swing.JLabel coolingLabel;
     private javax.swing.JLabel factorLabel;
     private javax.swing.JSlider factorSlider;
     private javax.swing.JLabel factorValue;
@@ -235,6 +265,8 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
     private javax.swing.JLabel stepsLabel;
     private javax.swing.JSlider stepsSlider;
     private javax.swing.JLabel stepsValue;
+    private javax.swing.JComboBox<String> terminationComboBox;
+    private javax.swing.JLabel terminationLabel;
     private org.jdesktop.beansbinding.BindingGroup bindingGroup;
     // End of variables declaration//GEN-END:variables
 
@@ -266,6 +298,24 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
         return stepsSlider;
     }
 
+    /**
+     * @return a new instance of the cooling schedule selected by the user
+     */
+    public ICoolingSchedule createCoolingSchedule(){
+        return new CoolingScheduleFactory().createSchedule(
+                coolingComboBox.getSelectedIndex(),
+                (double)factorSlider.getValue()/100
+                );
+    }
+
+    /**
+     * @return a new instance of the termination criterion selected by the user,
+     * null if the optimisation should only end after the maximum number of steps
+     */
+    public ITerminationCriterion createTerminationCriterion(){
+        return new CoolingScheduleFactory().createTermination(terminationComboBox.getSelectedIndex());
+    }
+
     public synchronized SimulatedAnnealingProcess getSAProcess(){
         SimulatedAnnealingProcess sa = new SimulatedAnnealingProcess(
                 stepsSlider.getValue(),
@@ -274,6 +324,9 @@ public class SimulatedAnnealing extends javax.swing.JPanel {
                 factorSlider.getValue()
                 );
 
+        sa.setCoolingSchedule(createCoolingSchedule());
+        sa.setTerminationCriterion(createTerminationCriterion());
+
         return sa;
     }
 
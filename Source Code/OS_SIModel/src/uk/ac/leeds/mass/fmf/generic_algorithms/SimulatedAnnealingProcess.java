@@ -23,6 +23,23 @@ package uk.ac.leeds.mass.fmf.generic_algorithms;
 
 //import java.util.Random;
 import ec.util.MersenneTwisterFast;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import uk.ac.leeds.mass.fmf.shared_objects.FrameworkProcess;
 
 /**
@@ -40,6 +57,30 @@ public class SimulatedAnnealingProcess extends FrameworkProcess{
     private int success;
     private double factor;
 
+    private double initialTemperature = 0.5;
+    private ICoolingSchedule coolingSchedule = null;
+    private ITerminationCriterion termination = null;
+
+    //energy accumulated from the fitness differences of the accepted changes (lower is better)
+    private double energy = 0.0;
+    private double bestEnergy = 0.0;
+
+    //number of candidate changes evaluated at the same time, 1 turns off speculative evaluation
+    private int speculativeCandidates = 1;
+    private ExecutorService executor = null;
+
+    //optional time and evaluation limit
+    private OptimisationBudget budget = null;
+
+    private static final String CHECKPOINT_HEADER = "SimulatedAnnealingProcess checkpoint 1";
+    private File checkpointFile = null;
+    private int checkpointInterval = 1;
+
+    //state read from a checkpoint for optimise to continue from
+    private boolean resumed = false;
+    private int resumeStep = 0;
+    private double resumeTemperature = 0.0;
+
 
     private SimulatedAnnealingProcess(){}
 
@@ -67,70 +108,289 @@ public class SimulatedAnnealingProcess extends FrameworkProcess{
         //initialise progress bar
         initilise(steps);
 
-        double annealingSchedule = 0.5;
+        double annealingSchedule = initialTemperature;
+        int firstStep = 0;
+
+        if ( resumed ){
+            //carry on from the step after the checkpoint, everything else was read from it
+            firstStep = resumeStep;
+            annealingSchedule = resumeTemperature;
+            progress = resumeStep;
+            resumed = false;
+        }else{
+            //default to the original geometric schedule
+            if ( coolingSchedule == null ){coolingSchedule = new GeometricCooling(factor);}
+            coolingSchedule.initialise(initialTemperature, steps);
+            if ( termination != null ){termination.initialise();}
+
+            energy = 0.0;
+            bestEnergy = 0.0;
+        }
+
+        if ( budget != null ){budget.start();}
+
+        //speculative evaluation is only possible if the configuration can be copied
+        boolean speculative = speculativeCandidates > 1 && sa instanceof ISpeculativeSimulatedAnnealing;
+        if ( speculative ){
+            executor = Executors.newFixedThreadPool(speculativeCandidates);
+        }
+
+        //the pool is shut down however the loop ends so its threads cannot keep the
+        //application running after a failed evaluation
+        try {
+            //cycle through the steps (commonly refered to as temperature) for the optimisation
+            //set from the stepsSlider
+            for (int i = firstStep; i < steps; i++) {
+
+                //if cancelled or out of time exit
+                if(cancelled || isBudgetExpired()){break;}
+
+                //reset the counters for attempts and successful changes
+                int successCount = 0;
+                int attemptCount = 0;
+                double stepBestEnergy = bestEnergy;
+
+                //cycle through and make changes for the maximum number of attempts
+                //set from the improvementAttemptSlider
+                if ( speculative ){
+                    int[] counts = speculativeAttempts(annealingSchedule);
+                    successCount = counts[0];
+                    attemptCount = counts[1];
+                }else{
+                    for (int j = 0; j < attempts; j++) {
+
+                        //suggest a change to the configuration and test to see if the change
+                        //is better or worse than the current configuration.
+                        //use the metropolis algorithm to either accept or reject the change
+                        if ( budget != null ){budget.countEvaluation();}
+                        double difference = sa.testChange( sa.suggestChange() );
+                        boolean change = metropolis(difference, annealingSchedule);
+                        attemptCount++;
+                        if ( change ) {
+                            getSa().makeChange();
+                            successCount++;
+                            addEnergy(difference);
+                        } else {
+                            getSa().rejectChange();
+                        }
+
+                        //print the current fitness out (minor iterative step)
+                        sa.printFittness(true);
+
+                        //check and see if we have had the maximum number of successes
+                        //if we have break out of the testing improvement attempt loop
+                        //success variable is set by the improvementSlider
+                        if ( successCount >= success ){break;}
+
+                        //check and see if we have a perfect fit, if so break
+                        if ( sa.isPerfect() ){break;}
+
+                        //if cancelled or out of time exit
+                        if(cancelled || isBudgetExpired()){break;}
+                    }
+                }
+
+                //print the current fitness out (major iterative step)
+                sa.printFittness(false);
+
+                //check and see if we have a perfect fit, if so break
+                if ( sa.isPerfect() ){break;}
+
+                // if we have not made any successful changes  break out of the algorithm and end
+                if ( successCount == 0 ) { break; }
+
+                //check and see if the fitness has stopped improving
+                if ( termination != null && termination.isConverged(energy, bestEnergy, Math.abs(sa.getCurrentFittness())) ){break;}
 
-        //cycle through the steps (commonly refered to as temperature) for the optimisation
-        //set from the stepsSlider
-        for (int i = 0; i < steps; i++) {
+                //adjust the anneaeling schedule
+                annealingSchedule = coolingSchedule.nextTemperature(annealingSchedule, attemptCount, successCount, bestEnergy < stepBestEnergy);
 
-            //if cancelled exit
-            if(cancelled){break;}
+                //increment progress bar
+                progress++;
 
-            //reset the counters for attempts and successful changes
-            int successCount = 0;
+                //save the state at the end of the step so the run can be resumed, a step
+                //cut short by a cancel or the budget is left out as it did not complete
+                if ( checkpointFile != null && (i + 1) % checkpointInterval == 0 
+                        && !cancelled && !isBudgetExpired() ){
+                    writeCheckpoint(i + 1, annealingSchedule);
+                }
 
-            //cycle through and make changes for the maximum number of attempts
-            //set from the improvementAttemptSlider
-            for (int j = 0; j < attempts; j++) {
+            }
+        } finally {
+            if ( executor != null ){
+                executor.shutdown();
+                executor = null;
+            }
+        }
 
-                //suggest a change to the configuration and test to see if the change
-                //is better or worse than the current configuration.
-                //use the metropolis algorithm to either accept or reject the change
-                boolean change = metropolis(sa.testChange( sa.suggestChange() ), annealingSchedule);
+        sa.setOptimised(true);
+
+        //end process
+        if ( !cancelled ){finished();}
+
+    }
+
+    /**
+     * Runs the attempts for one step evaluating several candidate changes concurrently.
+     * The candidates are all suggested from the current configuration and are then
+     * tested with the metropolis algorithm in the order they were suggested, exactly as
+     * they would have been one at a time.  When a candidate is accepted the
+     * configuration changes so the evaluations of the candidates after it are discarded
+     * and a new batch is suggested from the new configuration.
+     *
+     * @param annealingSchedule the current annealing schedule (temperature)
+     * @return the number of successful changes and the number of attempts made during the step
+     */
+    private int[] speculativeAttempts(double annealingSchedule){
+
+        ISpeculativeSimulatedAnnealing ssa = (ISpeculativeSimulatedAnnealing)sa;
+
+        int successCount = 0;
+        int j = 0;
+
+        while ( j < attempts && !isBudgetExpired() ){
+
+            //create the next batch of candidates from the current configuration
+            int batchSize = Math.min(speculativeCandidates, attempts - j);
+            List<ISpeculativeSimulatedAnnealing> candidates = new ArrayList<ISpeculativeSimulatedAnnealing>();
+            List<Callable<Double>> evaluations = new ArrayList<Callable<Double>>();
+            for (int k = 0; k < batchSize; k++) {
+                final ISpeculativeSimulatedAnnealing candidate = ssa.createCandidate();
+                if ( budget != null ){budget.countEvaluation();}
+                candidates.add(candidate);
+                evaluations.add(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        return candidate.suggestChange();
+                    }
+                });
+            }
+
+            //evaluate all of the candidates at the same time
+            List<Future<Double>> fittness;
+            try {
+                fittness = executor.invokeAll(evaluations);
+            } catch (InterruptedException ex) {
+                cancelled = true;
+                break;
+            }
+
+            //apply the metropolis algorithm to the candidates in sequence
+            boolean stop = false;
+            for (int k = 0; k < batchSize; k++) {
+
+                j++;
+
+                ISpeculativeSimulatedAnnealing candidate = candidates.get(k);
+                double difference;
+                try {
+                    difference = candidate.testChange( fittness.get(k).get() );
+                } catch (InterruptedException ex) {
+                    cancelled = true;
+                    stop = true;
+                    break;
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("Evaluation of a candidate change failed", ex.getCause());
+                }
+
+                boolean change = metropolis(difference, annealingSchedule);
                 if ( change ) {
-                    getSa().makeChange();
+                    ssa.acceptCandidate(candidate);
                     successCount++;
+                    addEnergy(difference);
                 } else {
-                    getSa().rejectChange();
+                    ssa.rejectCandidate(candidate);
                 }
 
                 //print the current fitness out (minor iterative step)
                 sa.printFittness(true);
 
-                //check and see if we have had the maximum number of successes
-                //if we have break out of the testing improvement attempt loop
-                //success variable is set by the improvementSlider
-                if ( successCount >= success ){break;}
+                if ( successCount >= success || sa.isPerfect() || cancelled || isBudgetExpired() ){
+                    stop = true;
+                    break;
+                }
 
-                //check and see if we have a perfect fit, if so break
-                if ( sa.isPerfect() ){break;}
+                //the remaining candidates were suggested from the old configuration
+                if ( change ){break;}
 
-                //if cancelled exit
-                if(cancelled){break;}
             }
 
-            //print the current fitness out (major iterative step)
-            sa.printFittness(false);
+            if ( stop ){break;}
 
-            //check and see if we have a perfect fit, if so break
-            if ( sa.isPerfect() ){break;}
+        }
 
-            // if we have not made any successful changes  break out of the algorithm and end
-            if ( successCount == 0 ) { break; }
+        return new int[]{successCount, j};
 
-            //adjust the anneaeling schedule
-            annealingSchedule *= factor;
+    }
 
-            //increment progress bar
-            progress++;
+    /**
+     * Write the state of the optimisation at the end of a step.  The checkpoint is written
+     * to a temporary file first and then moved over the previous one so a crash while
+     * writing does not lose the last good checkpoint.
+     */
+    private void writeCheckpoint(int nextStep, double annealingSchedule){
+        if ( !(sa instanceof ICheckpointable) ){return;}
+
+        File temporary = new File(checkpointFile.getPath() + ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeUTF(CHECKPOINT_HEADER);
+                out.writeInt(nextStep);
+                out.writeInt(steps);
+                out.writeDouble(annealingSchedule);
+                out.writeDouble(energy);
+                out.writeDouble(bestEnergy);
+                out.writeObject(random);
+                out.writeObject(coolingSchedule);
+                out.writeObject(termination);
+                ((ICheckpointable)sa).writeCheckpoint(out);
+            }
+            Files.move(temporary.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            //a failed checkpoint should not end a long optimisation
+            report("Unable to write checkpoint " + checkpointFile.getPath() + ": " + ex.getMessage());
+        }
+    }
 
+    /**
+     * Read the state of an interrupted optimisation from a checkpoint so that the next call
+     * to optimise carries on from the step after it was written.  The configuration must
+     * be set with setSa first and the process must have been created with the same
+     * settings as the interrupted one.
+     *
+     * @param file the checkpoint written by an earlier run
+     * @throws IOException if the checkpoint cannot be read or does not match this process
+     */
+    public void resume(File file) throws IOException{
+        if ( !(sa instanceof ICheckpointable) ){
+            throw new IOException("The configuration being optimised cannot be restored from a checkpoint");
         }
 
-        sa.setOptimised(true);
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if ( !CHECKPOINT_HEADER.equals(in.readUTF()) ){
+                throw new IOException(file.getPath() + " is not a simulated annealing checkpoint");
+            }
+            resumeStep = in.readInt();
+            if ( in.readInt() != steps ){
+                throw new IOException(file.getPath() + " was written with a different number of steps");
+            }
+            resumeTemperature = in.readDouble();
+            energy = in.readDouble();
+            bestEnergy = in.readDouble();
+            random = (MersenneTwisterFast)in.readObject();
+            coolingSchedule = (ICoolingSchedule)in.readObject();
+            termination = (ITerminationCriterion)in.readObject();
+            ((ICheckpointable)sa).readCheckpoint(in);
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Unable to read checkpoint " + file.getPath(), ex);
+        }
 
-        //end process
-        if ( !cancelled ){finished();}
+        resumed = true;
+    }
 
+    private void addEnergy(double difference){
+        energy += difference;
+        if ( energy < bestEnergy ){bestEnergy = energy;}
     }
 
     private boolean metropolis(double fittnessDifference, double annealingSchedule){
@@ -162,4 +422,100 @@ public class SimulatedAnnealingProcess extends FrameworkProcess{
         random.setSeed(seed);
     }
 
+    /**
+     * @return the time and evaluation limit for the optimisation, null if there is none
+     */
+    public OptimisationBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Set a time and/or evaluation limit for the optimisation.  When the budget runs out
+     * the optimisation ends after the current attempt leaving the configuration as the best
+     * found so far.  The same budget should be given to the configuration if it can
+     * stop a long evaluation part way through.
+     *
+     * @param budget the budget or null to remove the limit
+     */
+    public void setBudget(OptimisationBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Save the state of the optimisation to a file every few steps so that it can be 
+     * resumed if it is interrupted.  Only configurations that implement ICheckpointable
+     * can be saved.
+     *
+     * @param checkpointFile the file to write, null to stop writing checkpoints
+     * @param checkpointInterval the number of steps between checkpoints
+     */
+    public void setCheckpoint(File checkpointFile, int checkpointInterval) {
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    /**
+     * @return true if a budget was set and has run out or been cancelled
+     */
+    public boolean isBudgetExpired() {
+        return budget != null && budget.isExpired();
+    }
+
+    /**
+     * Report a problem that does not stop the optimisation, such as a checkpoint that
+     * could not be written.  Subclasses pass the message to the application's log.
+     *
+     * @param message the message to report
+     */
+    protected void report(String message) {
+    }
+
+    /**
+     * @param initialTemperature the annealing schedule used for the first step
+     */
+    public void setInitialTemperature(double initialTemperature) {
+        this.initialTemperature = initialTemperature;
+    }
+
+    /**
+     * @param coolingSchedule the schedule used to reduce the temperature between steps,
+     * null uses a geometric schedule with the reduction factor
+     */
+    public void setCoolingSchedule(ICoolingSchedule coolingSchedule) {
+        this.coolingSchedule = coolingSchedule;
+    }
+
+    /**
+     * @param termination the criterion used to end the optimisation early,
+     * null only ends early when a step makes no successful changes
+     */
+    public void setTerminationCriterion(ITerminationCriterion termination) {
+        this.termination = termination;
+    }
+
+    /**
+     * @return the reduction factor set from the factor slider (0 - 1)
+     */
+    public double getFactor() {
+        return factor;
+    }
+
+    /**
+     * @return the number of candidate changes evaluated at the same time
+     */
+    public int getSpeculativeCandidates() {
+        return speculativeCandidates;
+    }
+
+    /**
+     * Set the number of candidate changes evaluated at the same time.  Values above 1
+     * only take effect if the configuration being optimised implements
+     * ISpeculativeSimulatedAnnealing.
+     *
+     * @param speculativeCandidates the number of candidates, usually the number of processors
+     */
+    public void setSpeculativeCandidates(int speculativeCandidates) {
+        this.speculativeCandidates = Math.max(1, speculativeCandidates);
+    }
+
 }